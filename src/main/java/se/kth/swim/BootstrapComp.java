@@ -18,32 +18,57 @@
  */
 package se.kth.swim;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
+import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.kth.swim.msg.net.NetBootstrap;
 import se.kth.swim.nat.NatedAddress;
 import se.sics.kompics.*;
-import se.sics.kompics.network.Address;
 import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.CancelPeriodicTimeout;
+import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.Timeout;
 import se.sics.kompics.timer.Timer;
 
 /**
+ * Bootstrap server. Nodes register and keep re-registering as a heartbeat; registrations that miss
+ * EXPIRE_ROUNDS refresh rounds are dropped. Joiners are served a random sample of the live nodes out of
+ * a cached, pre-shuffled array that is rebuilt once per refresh round, so a request costs O(k).
+ *
  * @author Alex Ormenisan <aaor@sics.se>
  */
 public class BootstrapComp extends ComponentDefinition {
 
   private static final Logger log = LoggerFactory.getLogger(BootstrapComp.class);
+  private static final long REFRESH_PERIOD = 1000;
+  private static final int EXPIRE_ROUNDS = 10;
+  private static final int CACHE_SIZE = 256;
+
   private Positive<Network> network = requires(Network.class);
   private Positive<Timer> timer = requires(Timer.class);
 
   private final NatedAddress selfAddress;
-  private TreeMap<Integer, Address> peers = new TreeMap<>();
+  private final Random rand;
+  private TreeMap<Integer, Registration> peers = new TreeMap<>();
+  private NatedAddress[] cachedSample = new NatedAddress[0];
+  private int round = 0;
+  private UUID refreshTimeoutId;
 
   public BootstrapComp(BootStrapInit init) {
     this.selfAddress = init.selfAddress;
+    this.rand = new Random(init.seed);
     log.info("{} initiating...", new Object[]{selfAddress.getId()});
     subscribe(handleStart, control);
     subscribe(handleStop, control);
+    subscribe(handleRegister, network);
+    subscribe(handleSampleRequest, network);
+    subscribe(handleRefresh, timer);
   }
 
   Handler<Start> handleStart = new Handler<Start>() {
@@ -51,6 +76,7 @@ public class BootstrapComp extends ComponentDefinition {
     @Override
     public void handle(Start event) {
       log.info("{} starting...", new Object[]{selfAddress});
+      scheduleRefresh();
     }
 
   };
@@ -59,16 +85,126 @@ public class BootstrapComp extends ComponentDefinition {
     @Override
     public void handle(Stop event) {
       log.info("{} stopping...", new Object[]{selfAddress});
+      if (refreshTimeoutId != null) {
+        trigger(new CancelPeriodicTimeout(refreshTimeoutId), timer);
+        refreshTimeoutId = null;
+      }
+    }
+  };
+
+  Handler<NetBootstrap.Register> handleRegister = new Handler<NetBootstrap.Register>() {
+
+    @Override
+    public void handle(NetBootstrap.Register event) {
+      NatedAddress peer = event.getSource();
+      if (peers.put(peer.getId(), new Registration(peer, round)) == null) {
+        log.debug("{} registered {}", new Object[]{selfAddress.getId(), peer});
+        if (cachedSample.length < Math.min(CACHE_SIZE, peers.size())) {
+          //do not make early joiners wait for the next refresh round
+          refreshSample();
+        }
+      }
+    }
+  };
+
+  Handler<NetBootstrap.SampleRequest> handleSampleRequest = new Handler<NetBootstrap.SampleRequest>() {
+
+    @Override
+    public void handle(NetBootstrap.SampleRequest event) {
+      NatedAddress requester = event.getSource();
+      int sampleSize = event.getContent().getSampleSize();
+      List<NatedAddress> sample = new ArrayList<>(sampleSize);
+      if (cachedSample.length > 0) {
+        //the cache is already shuffled, any contiguous window of it is a random sample
+        int start = rand.nextInt(cachedSample.length);
+        for (int i = 0; i < cachedSample.length && sample.size() < sampleSize; i++) {
+          NatedAddress peer = cachedSample[(start + i) % cachedSample.length];
+          if (!peer.equals(requester)) {
+            sample.add(peer);
+          }
+        }
+      }
+      log.debug("{} serving {} with sample:{}", new Object[]{selfAddress.getId(), requester, sample});
+      trigger(new NetBootstrap.Sample(selfAddress, requester, sample), network);
     }
   };
 
+  Handler<RefreshTimeout> handleRefresh = new Handler<RefreshTimeout>() {
+
+    @Override
+    public void handle(RefreshTimeout event) {
+      round++;
+      Iterator<Map.Entry<Integer, Registration>> it = peers.entrySet().iterator();
+      while (it.hasNext()) {
+        Registration registration = it.next().getValue();
+        if (round - registration.lastSeen > EXPIRE_ROUNDS) {
+          log.debug("{} registration of {} expired", new Object[]{selfAddress.getId(), registration.peer});
+          it.remove();
+        }
+      }
+      refreshSample();
+    }
+  };
+
+  /**
+   * Rebuilds the cached sample with a partial Fisher-Yates shuffle over the live registrations.
+   */
+  private void refreshSample() {
+    NatedAddress[] live = new NatedAddress[peers.size()];
+    int i = 0;
+    for (Registration registration : peers.values()) {
+      live[i++] = registration.peer;
+    }
+    int sampleSize = Math.min(CACHE_SIZE, live.length);
+    for (int j = 0; j < sampleSize; j++) {
+      int k = j + rand.nextInt(live.length - j);
+      NatedAddress tmp = live[j];
+      live[j] = live[k];
+      live[k] = tmp;
+    }
+    NatedAddress[] sample = new NatedAddress[sampleSize];
+    System.arraycopy(live, 0, sample, 0, sampleSize);
+    cachedSample = sample;
+  }
+
+  private void scheduleRefresh() {
+    SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(REFRESH_PERIOD, REFRESH_PERIOD);
+    RefreshTimeout sc = new RefreshTimeout(spt);
+    spt.setTimeoutEvent(sc);
+    refreshTimeoutId = sc.getTimeoutId();
+    trigger(spt, timer);
+  }
+
+  private static class Registration {
+
+    final NatedAddress peer;
+    final int lastSeen;
+
+    Registration(NatedAddress peer, int lastSeen) {
+      this.peer = peer;
+      this.lastSeen = lastSeen;
+    }
+  }
+
+  private static class RefreshTimeout extends Timeout {
+
+    public RefreshTimeout(SchedulePeriodicTimeout request) {
+      super(request);
+    }
+  }
 
   public static class BootStrapInit extends Init<BootstrapComp> {
 
     public final NatedAddress selfAddress;
+    public final long seed;
 
-    public BootStrapInit(NatedAddress selfAddress) {
+    public BootStrapInit(NatedAddress selfAddress, long seed) {
       this.selfAddress = selfAddress;
+      this.seed = seed;
+    }
+
+    public BootStrapInit(NatedAddress selfAddress) {
+      this(selfAddress, 0);
     }
   }
 }
@@ -20,6 +20,7 @@
 package se.kth.swim;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +29,7 @@ import se.kth.swim.croupier.CroupierConfig;
 import se.kth.swim.croupier.CroupierPort;
 import se.kth.swim.croupier.util.OverlayFilter;
 import se.kth.swim.nat.NatedAddress;
+import se.kth.swim.util.Clock;
 import se.sics.kompics.Channel;
 import se.sics.kompics.Component;
 import se.sics.kompics.ComponentDefinition;
@@ -44,6 +46,11 @@ import se.sics.kompics.timer.Timer;
  */
 public class HostComp extends ComponentDefinition {
     private static final Logger log = LoggerFactory.getLogger(HostComp.class);
+    //swim draws from its own stream, apart from croupier and nat traversal which use the host seed as is
+    private static final long SWIM_SEED_OFFSET = 0x5EED;
+    //one croupier multiplexes all overlays of a node over this exchange id
+    private static final int CROUPIER_EXCHANGE_ID = 1;
+    public static final int DEFAULT_OVERLAY_ID = 1;
     private Positive<Network> network = requires(Network.class);
     private Positive<Timer> timer = requires(Timer.class);
 
@@ -60,16 +67,16 @@ public class HostComp extends ComponentDefinition {
         subscribe(handleStart, control);
         subscribe(handleStop, control);
         
-        int overlayId = 1; //so far we don't start multiple croupier overlay
-        croupier = create(CroupierComp.class, new CroupierComp.CroupierInit(selfAddress, new ArrayList<NatedAddress>(init.bootstrapNodes), init.seed, init.croupierConfig, overlayId));
+        croupier = create(CroupierComp.class, new CroupierComp.CroupierInit(selfAddress, new ArrayList<NatedAddress>(init.bootstrapNodes), init.seed, init.croupierConfig, CROUPIER_EXCHANGE_ID, init.overlayIds, init.clock));
         connect(croupier.getNegative(Timer.class), timer, Channel.TWO_WAY);
-        connect(croupier.getNegative(Network.class), network, new OverlayFilter(overlayId), Channel.TWO_WAY);
         
         nat = create(NatTraversalComp.class, new NatTraversalComp.NatTraversalInit(selfAddress, init.seed));
         connect(nat.getNegative(Network.class), network, Channel.TWO_WAY);
         connect(nat.getNegative(CroupierPort.class), croupier.getPositive(CroupierPort.class), Channel.TWO_WAY);
+        //croupier goes through nat traversal as well, so that shuffles with nated nodes are relayed by their parents
+        connect(croupier.getNegative(Network.class), nat.getPositive(Network.class), new OverlayFilter(CROUPIER_EXCHANGE_ID), Channel.TWO_WAY);
         
-        swim = create(SwimComp.class, new SwimComp.SwimInit(selfAddress, init.bootstrapNodes));
+        swim = create(SwimComp.class, new SwimComp.SwimInit(selfAddress, init.bootstrapNodes, init.bootstrapServer, init.swimConfig, init.seed + SWIM_SEED_OFFSET, init.clock));
         connect(swim.getNegative(Timer.class), timer, Channel.TWO_WAY);
         connect(swim.getNegative(Network.class), nat.getPositive(Network.class), Channel.TWO_WAY);
     }
@@ -96,13 +103,49 @@ public class HostComp extends ComponentDefinition {
         public final List<NatedAddress> bootstrapNodes;
         public final long seed;
         public final CroupierConfig croupierConfig;
+        public final SwimConfig swimConfig;
+        public final NatedAddress bootstrapServer;
+        /**
+         * time source of every component of the host, their random sources are all derived from seed
+         */
+        public final Clock clock;
+        /**
+         * overlays kept by the croupier of the host, all shuffled over the same exchange
+         */
+        public final List<Integer> overlayIds;
 
         public HostInit(NatedAddress selfAddress, List<NatedAddress> bootstrapNodes, long seed, 
-          CroupierConfig croupierConfig) {
+          CroupierConfig croupierConfig, SwimConfig swimConfig, NatedAddress bootstrapServer, Clock clock,
+          List<Integer> overlayIds) {
             this.selfAddress = selfAddress;
             this.bootstrapNodes = bootstrapNodes;
             this.seed = seed;
             this.croupierConfig = croupierConfig;
+            this.swimConfig = swimConfig;
+            this.bootstrapServer = bootstrapServer;
+            this.clock = clock;
+            this.overlayIds = overlayIds;
+        }
+
+        public HostInit(NatedAddress selfAddress, List<NatedAddress> bootstrapNodes, long seed, 
+          CroupierConfig croupierConfig, SwimConfig swimConfig, NatedAddress bootstrapServer, Clock clock) {
+            this(selfAddress, bootstrapNodes, seed, croupierConfig, swimConfig, bootstrapServer, clock,
+              Collections.singletonList(DEFAULT_OVERLAY_ID));
+        }
+
+        public HostInit(NatedAddress selfAddress, List<NatedAddress> bootstrapNodes, long seed, 
+          CroupierConfig croupierConfig, SwimConfig swimConfig, NatedAddress bootstrapServer) {
+            this(selfAddress, bootstrapNodes, seed, croupierConfig, swimConfig, bootstrapServer, Clock.SYSTEM);
+        }
+
+        public HostInit(NatedAddress selfAddress, List<NatedAddress> bootstrapNodes, long seed, 
+          CroupierConfig croupierConfig, NatedAddress bootstrapServer) {
+            this(selfAddress, bootstrapNodes, seed, croupierConfig, new SwimConfig(), bootstrapServer);
+        }
+
+        public HostInit(NatedAddress selfAddress, List<NatedAddress> bootstrapNodes, long seed, 
+          CroupierConfig croupierConfig) {
+            this(selfAddress, bootstrapNodes, seed, croupierConfig, null);
         }
     }
 }
@@ -146,7 +146,7 @@ public class NatTraversalComp extends ComponentDefinition {
     private Handler handleCroupierSample = new Handler<CroupierSample>() {
         @Override
         public void handle(CroupierSample event) {
-            log.info("{} croupier public nodes:{}", selfAddress.getBaseAdr(), event.publicSample);
+            log.trace("{} croupier public nodes:{}", selfAddress.getBaseAdr(), event.publicSample);
             //use this to change parent in case it died
         }
     };
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Phi accrual failure detector (Hayashibara et al.). For every monitored member it keeps a sliding window
+ * of the times it took an ack to arrive after a probe was sent, and turns the time waited so far into a
+ * suspicion level phi = -log10(1 - F(t)), F being the normal distribution fitted to the window.
+ */
+public class PhiAccrualDetector {
+
+    private static final int MIN_SAMPLES = 5;
+
+    private final int windowSize;
+    private final double minStdDeviation;
+    private final Map<Integer, ArrivalWindow> windows = new HashMap<>();
+
+    public PhiAccrualDetector(int windowSize, double minStdDeviation) {
+        this.windowSize = windowSize;
+        this.minStdDeviation = minStdDeviation;
+    }
+
+    public void arrival(Integer memberId, long interArrival) {
+        ArrivalWindow window = windows.get(memberId);
+        if (window == null) {
+            window = new ArrivalWindow(windowSize);
+            windows.put(memberId, window);
+        }
+        window.add(interArrival);
+    }
+
+    public void remove(Integer memberId) {
+        windows.remove(memberId);
+    }
+
+    /**
+     * @return phi after waiting elapsed ms, or NaN while too few arrivals are known for the member
+     */
+    public double phi(Integer memberId, long elapsed) {
+        ArrivalWindow window = windows.get(memberId);
+        if (window == null || window.count < MIN_SAMPLES) {
+            return Double.NaN;
+        }
+        return phi(elapsed, window.mean(), Math.max(window.stdDeviation(), minStdDeviation));
+    }
+
+    /**
+     * @return how long to wait before phi reaches threshold, or defaultTimeout while too few arrivals are known
+     */
+    public long timeout(Integer memberId, double threshold, long defaultTimeout) {
+        ArrivalWindow window = windows.get(memberId);
+        if (window == null || window.count < MIN_SAMPLES) {
+            return defaultTimeout;
+        }
+        double mean = window.mean();
+        double stdDeviation = Math.max(window.stdDeviation(), minStdDeviation);
+        //phi grows monotonically with the time waited, so bisect on it in standard deviations from the mean
+        double lo = -10, hi = 40;
+        for (int i = 0; i < 50; i++) {
+            double mid = (lo + hi) / 2;
+            if (phi(mean + mid * stdDeviation, mean, stdDeviation) < threshold) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return Math.max(1, (long) Math.ceil(mean + hi * stdDeviation));
+    }
+
+    //logistic approximation of the normal cdf, as used by Cassandra and Akka
+    private static double phi(double elapsed, double mean, double stdDeviation) {
+        double y = (elapsed - mean) / stdDeviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean) {
+            return -Math.log10(e / (1.0 + e));
+        } else {
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+
+    private static class ArrivalWindow {
+
+        private final long[] samples;
+        private int next = 0;
+        private int count = 0;
+        private double sum = 0;
+        private double sumOfSquares = 0;
+
+        ArrivalWindow(int size) {
+            this.samples = new long[size];
+        }
+
+        void add(long sample) {
+            if (count == samples.length) {
+                long evicted = samples[next];
+                sum -= evicted;
+                sumOfSquares -= (double) evicted * evicted;
+            } else {
+                count++;
+            }
+            samples[next] = sample;
+            next = (next + 1) % samples.length;
+            sum += sample;
+            sumOfSquares += (double) sample * sample;
+        }
+
+        double mean() {
+            return sum / count;
+        }
+
+        double stdDeviation() {
+            double mean = mean();
+            return Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+        }
+    }
+}
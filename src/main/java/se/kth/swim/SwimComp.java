@@ -18,15 +18,18 @@
  */
 package se.kth.swim;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.kth.swim.msg.JoinResponse;
 import se.kth.swim.msg.PingPongType;
 import se.kth.swim.msg.Status;
 import se.kth.swim.msg.StatusType;
 import se.kth.swim.msg.net.*;
 import se.kth.swim.nat.NatedAddress;
+import se.kth.swim.network.impl.BasicContentMsg;
+import se.kth.swim.util.Clock;
+import se.kth.swim.util.SeededRandom;
 import se.sics.kompics.ComponentDefinition;
 import se.sics.kompics.Handler;
 import se.sics.kompics.Init;
@@ -43,26 +46,51 @@ import se.sics.kompics.timer.Timer;
 public class SwimComp extends ComponentDefinition {
 
     private static final Logger log = LoggerFactory.getLogger(SwimComp.class);
+    private static final int JOIN_CHUNK_SIZE = 64; //status entries per join chunk, keeps a chunk within one datagram
+    private static final int JOIN_ATTEMPTS = 3;
+    private static final int BOOTSTRAP_SAMPLE_SIZE = 4;
+    private static final long BOOTSTRAP_HEARTBEAT_PERIOD = 5000;
+    private static final int PHI_WINDOW_SIZE = 100;
+    private static final double PHI_MIN_STD_DEVIATION = 50;
     private Positive<Network> network = requires(Network.class);
     private Positive<Timer> timer = requires(Timer.class);
     private final NatedAddress selfAddress;
     private final List<NatedAddress> bootstrapNodes;
-    private Map<Integer,Status> localStateNodes = new TreeMap<>();
+    private final NatedAddress bootstrapServer;
+    private final SwimConfig config;
+    private SortedMap<Integer,Status> localStateNodes = new TreeMap<>();
     private Map<Integer,UUID> suspectedNodes = new TreeMap<>();
-    private Map<UUID,NatedAddress> nodeswithPingReq = new TreeMap<>();
+    private Map<Integer,RelayedProbe> relayedProbes = new HashMap<>();
     private Map<Integer, Status> updateLocalview = new TreeMap<>();
     private UUID pingTimeoutId;
-    private UUID pongTimeoutId;
+    private UUID bootstrapHeartbeatId;
+    private Map<UUID,Probe> probesInFlight = new HashMap<>();
+    private Map<Integer,Long> lastHeard = new HashMap<>();
+    private Map<Integer,Status> lastBroadcast = new HashMap<>();
+    private Set<NatedAddress> refutationTargets = new HashSet<>();
+    private final PhiAccrualDetector phiDetector = new PhiAccrualDetector(PHI_WINDOW_SIZE, PHI_MIN_STD_DEVIATION);
     private Status peerStatus;
     private int receivedPings = 0;
     private int incarnationNumber;
+    private UUID joinId;
+    private Set<Integer> joinChunks = new HashSet<>();
+    private int joinAttempts = 0;
+    //index of the bootstrap node the first join attempt went to, retries move on from there
+    private int joinStart = 0;
+    private final SeededRandom rand;
+    private final Clock clock;
 
     public SwimComp(SwimInit init) {
         this.selfAddress = init.selfAddress;
         log.info("{} initiating...", selfAddress);
-        this.bootstrapNodes = init.bootstrapNodes;
+        this.bootstrapNodes = new ArrayList<>(init.bootstrapNodes);
+        this.bootstrapServer = init.bootstrapServer;
+        this.config = init.config;
+        this.rand = new SeededRandom(init.seed);
+        this.clock = init.clock;
         subscribe(handleStart, control);
         subscribe(handleStop, control);
+        subscribe(livenessHandler, network);
         subscribe(handlePing, network);
         subscribe(pongHandler, network);
         subscribe(netPingRequestHandler, network);
@@ -72,15 +100,45 @@ public class SwimComp extends ComponentDefinition {
         subscribe(handlePingTimeout, timer);
         subscribe(pongTimeoutHandler, timer);
         subscribe(printHandler, timer);
+        subscribe(joinRequestHandler, network);
+        subscribe(joinResponseHandler, network);
+        subscribe(joinTimeoutHandler, timer);
+        subscribe(bootstrapSampleHandler, network);
+        subscribe(bootstrapHeartbeatHandler, timer);
+        subscribe(broadcastHandler, network);
 
     }
     public static class SwimInit extends Init<SwimComp> {
         public final NatedAddress selfAddress;
         public final List<NatedAddress> bootstrapNodes;
+        public final NatedAddress bootstrapServer;
+        public final SwimConfig config;
+        public final long seed;
+        public final Clock clock;
 
-        public SwimInit(NatedAddress selfAddress, List<NatedAddress> bootstrapNodes) {
+        public SwimInit(NatedAddress selfAddress, List<NatedAddress> bootstrapNodes, NatedAddress bootstrapServer, SwimConfig config,
+                        long seed, Clock clock) {
             this.selfAddress = selfAddress;
             this.bootstrapNodes = bootstrapNodes;
+            this.bootstrapServer = bootstrapServer;
+            this.config = config;
+            this.seed = seed;
+            this.clock = clock;
+        }
+
+        /**
+         * seeded with the node id and on the system clock
+         */
+        public SwimInit(NatedAddress selfAddress, List<NatedAddress> bootstrapNodes, NatedAddress bootstrapServer, SwimConfig config) {
+            this(selfAddress, bootstrapNodes, bootstrapServer, config, selfAddress.getId(), Clock.SYSTEM);
+        }
+
+        public SwimInit(NatedAddress selfAddress, List<NatedAddress> bootstrapNodes, NatedAddress bootstrapServer) {
+            this(selfAddress, bootstrapNodes, bootstrapServer, new SwimConfig());
+        }
+
+        public SwimInit(NatedAddress selfAddress, List<NatedAddress> bootstrapNodes) {
+            this(selfAddress, bootstrapNodes, null);
         }
     }
 
@@ -90,9 +148,13 @@ public class SwimComp extends ComponentDefinition {
             log.info("{} At SwimComp Start Handler starting...", new Object[]{selfAddress.getId()});
             incarnationNumber = 0;
             localStateNodes.put(selfAddress.getId(),new Status(StatusType.ALIVE,incarnationNumber,  selfAddress,selfAddress));
+            if (bootstrapServer != null) {
+                trigger(new NetBootstrap.Register(selfAddress, bootstrapServer), network);
+                trigger(new NetBootstrap.SampleRequest(selfAddress, bootstrapServer, BOOTSTRAP_SAMPLE_SIZE), network);
+                scheduleBootstrapHeartbeat();
+            }
             if (!bootstrapNodes.isEmpty()) {
-                schedulePeriodicPing();
-                shedulePeriodicLocalViewPrint();
+                startProbing();
             }
         }
 
@@ -102,9 +164,14 @@ public class SwimComp extends ComponentDefinition {
         @Override
         public void handle(Stop event) {
             log.info("{} stopping...", new Object[]{selfAddress.getId()});
+            broadcast(new Status(StatusType.LEFT, incarnationNumber, selfAddress, selfAddress));
             if (pingTimeoutId != null) {
                 cancelPeriodicPing();
             }
+            if (bootstrapHeartbeatId != null) {
+                trigger(new CancelPeriodicTimeout(bootstrapHeartbeatId), timer);
+                bootstrapHeartbeatId = null;
+            }
         }
 
     };
@@ -112,6 +179,27 @@ public class SwimComp extends ComponentDefinition {
     //                                                                                                               //
     //---------------------------------------------------------------------------------------------------------------//
 
+    /**
+     * Every message delivered by the nat traversal layer proves its sender alive. That is SWIM traffic and, since
+     * HostComp routes Croupier through NatTraversalComp on the same network port, Croupier shuffles too. The time
+     * is recorded so that probes can skip recently heard members, and an open probe of the sender is completed.
+     * Direct pongs are left to pongHandler, which has to see the probe still open to sample its round trip.
+     */
+    private Handler<BasicContentMsg> livenessHandler = new Handler<BasicContentMsg>() {
+        @Override
+        public void handle(BasicContentMsg msg) {
+            NatedAddress source = msg.getSource();
+            if(source == null || source.equals(selfAddress)){
+                return;
+            }
+            lastHeard.put(source.getId(), clock.now());
+            if(msg instanceof NetPong && ((NetPong) msg).getContent().getPingPongType().equals(PingPongType.PINGPONG)){
+                return;
+            }
+            completeProbeOf(source);
+        }
+    };
+
     private Handler<NetPing> handlePing = new Handler<NetPing>() {
         @Override
         public void handle(NetPing netPingEvent) {
@@ -130,20 +218,33 @@ public class SwimComp extends ComponentDefinition {
         @Override
         public void handle(NetPong netPongEvent) {
             if( netPongEvent.getContent().getPingPongType().equals(PingPongType.PINGPONG)){
-                if( netPongEvent.getContent().getPongTimeoutId() != null ) {
-                    cancelPongTimeout(netPongEvent.getContent().getPongTimeoutId(), netPongEvent.getSource());
-                    updateLocalview.clear();
-                    updateLocalview.putAll(netPongEvent.getContent().getViewUpdate());
-                    Status status = updateLocalview.get(netPongEvent.getSource().getId());
-                    updateLocalState(updateLocalview);
+                UUID probeId = netPongEvent.getContent().getPongTimeoutId();
+                Probe probe = probesInFlight.get(probeId);
+                //only a direct pong from the target itself is a round trip sample for the detector
+                if(probe != null && probe.state == ProbeState.DIRECT && probe.target.equals(netPongEvent.getSource())){
+                    phiDetector.arrival(probe.target.getId(), clock.now() - probe.startedAt);
+                }
+                if(probe != null){
+                    completeProbe(probeId);
+                }else{
+                    //a late pong of an older probe still proves the sender alive
+                    completeProbeOf(netPongEvent.getSource());
                 }
+                updateLocalview.clear();
+                updateLocalview.putAll(netPongEvent.getContent().getViewUpdate());
+                updateLocalState(updateLocalview);
             }else {
-                cancelPingRequestTimeout(netPongEvent.getContent().getPongTimeoutId(),netPongEvent.getSource());
-                NatedAddress target = nodeswithPingReq.remove(netPongEvent.getContent().getPongTimeoutId());
-                trigger(new NetPong(netPongEvent.getSource(), target,PingPongType.PINGPONG,netPongEvent.getContent().getPongTimeoutId(),localStateNodes),network);
+                NatedAddress target = netPongEvent.getSource();
+                RelayedProbe relayed = relayedProbes.get(target.getId());
+                if(relayed != null && relayed.helperProbeId.equals(netPongEvent.getContent().getPongTimeoutId())){
+                    relayedProbes.remove(target.getId());
+                    cancelPingRequestTimeout(relayed.timeoutId, target);
+                    for(Map.Entry<UUID,NatedAddress> requester : relayed.requesters.entrySet()){
+                        trigger(new NetPong(target, requester.getValue(),PingPongType.PINGPONG,requester.getKey(),localStateNodes),network);
+                    }
+                }
                 updateLocalview.clear();
                 updateLocalview.putAll(netPongEvent.getContent().getViewUpdate());
-                Status status = updateLocalview.get(netPongEvent.getSource().getId());
                 updateLocalState(updateLocalview);
             }
         }
@@ -152,10 +253,20 @@ public class SwimComp extends ComponentDefinition {
     private Handler<PingTimeout> handlePingTimeout = new Handler<PingTimeout>() {
         @Override
         public void handle(se.kth.swim.SwimComp.PingTimeout event) {
-            List<NatedAddress> peers = selectRandomPeer(selfAddress,bootstrapNodes,1);
+            int awaitingPong = directProbesInFlight();
+            if(awaitingPong >= config.probesPerPeriod){
+                log.debug("{} {} probes still in flight, skipping probe", new Object[]{selfAddress.getId(), awaitingPong});
+                return;
+            }
+            List<NatedAddress> peers = selectRandomPeer(selfAddress,probeCandidates(),1);
+            if(peers == null){
+                return;
+            }
             for(NatedAddress peer: peers){
-                pongTimeoutId = schedulePongTimeout(peer,2000);
-                trigger(new NetPing(selfAddress, peer, PingPongType.PINGPONG,pongTimeoutId,localStateNodes), network);
+                Probe probe = new Probe(rand.nextUUID(), peer, clock.now());
+                probe.timeoutId = schedulePongTimeout(peer,probe.probeId,pongTimeoutFor(peer));
+                probesInFlight.put(probe.probeId, probe);
+                trigger(new NetPing(selfAddress, peer, PingPongType.PINGPONG,probe.probeId,localStateNodes), network);
             }
         }
     };
@@ -164,39 +275,61 @@ public class SwimComp extends ComponentDefinition {
     private Handler<PongTimeout> pongTimeoutHandler = new Handler<PongTimeout>() {
         @Override
         public void handle(PongTimeout pongTimeoutEvent) {
-            UUID pingSuspectRequesttId;
-            List<NatedAddress> lst = getListofLocalState(localStateNodes);
-            List<NatedAddress> peerstoProbe = selectRandomPeer(selfAddress,lst ,2);
-            pingSuspectRequesttId = pongTimeoutEvent.getPongTimeoutId();
-            if(peerstoProbe != null){
-                for(NatedAddress peer : peerstoProbe){
-                    trigger(new NetPingRequest(selfAddress,peer,pongTimeoutEvent.getSuspectedPeer(),pingSuspectRequesttId),network);
-                }
-                scheduleSuspectTimeout(pongTimeoutEvent.getSuspectedPeer(),pingSuspectRequesttId,2000);
+            Probe probe = probesInFlight.get(pongTimeoutEvent.getPongTimeoutId());
+            if(probe == null || probe.state != ProbeState.DIRECT){
+                return;
+            }
+            List<NatedAddress> helpers = selectRandomMembers(config.indirectProbes, probe.target);
+            for(NatedAddress peer : helpers){
+                trigger(new NetPingRequest(selfAddress,peer,probe.target,probe.probeId),network);
             }
+            probe.state = ProbeState.INDIRECT;
+            probe.timeoutId = scheduleSuspectTimeout(probe.target,probe.probeId,config.pongTimeout);
         }
     };
 
     private Handler<NetPingRequest> netPingRequestHandler = new Handler<NetPingRequest>() {
         @Override
         public void handle(NetPingRequest netPingRequestEvent) {
-            nodeswithPingReq.put(netPingRequestEvent.getContent().getPingSuspectRequesttId(),netPingRequestEvent.getSource());
-            trigger(new NetPing(selfAddress,netPingRequestEvent.getContent().getPeerToPing(), PingPongType.PINGREQUEST,
-                    netPingRequestEvent.getContent().getPingSuspectRequesttId(), localStateNodes),network);
-            schedulePingRequestTimeout(netPingRequestEvent.getContent().getPingSuspectRequesttId(),2000);
+            NatedAddress requester = netPingRequestEvent.getSource();
+            NatedAddress target = netPingRequestEvent.getContent().getPeerToPing();
+            UUID probeId = netPingRequestEvent.getContent().getPingSuspectRequesttId();
+            //answer from the ack cache if the target was heard from a moment ago
+            Long heard = lastHeard.get(target.getId());
+            if(heard != null && clock.now() - heard < config.ackCacheWindow){
+                trigger(new NetPong(target, requester,PingPongType.PINGPONG,probeId,localStateNodes),network);
+                return;
+            }
+            //coalesce with a ping to the same target that is already outstanding
+            RelayedProbe relayed = relayedProbes.get(target.getId());
+            if(relayed != null){
+                relayed.requesters.put(probeId, requester);
+                return;
+            }
+            relayed = new RelayedProbe(rand.nextUUID(), target);
+            relayed.requesters.put(probeId, requester);
+            relayed.timeoutId = schedulePingRequestTimeout(relayed.helperProbeId, target, config.pongTimeout);
+            relayedProbes.put(target.getId(), relayed);
+            trigger(new NetPing(selfAddress,target, PingPongType.PINGREQUEST, relayed.helperProbeId, localStateNodes),network);
         }
     };
 
     private Handler<PingRequestTimeout> pingRequestTimeoutHandler = new Handler<PingRequestTimeout>() {
         @Override
         public void handle(PingRequestTimeout pingRequestTimeout) {
-            nodeswithPingReq.remove(pingRequestTimeout.getPingSuspectRequesttId());
+            RelayedProbe relayed = relayedProbes.get(pingRequestTimeout.getTarget().getId());
+            if(relayed != null && relayed.helperProbeId.equals(pingRequestTimeout.getPingSuspectRequesttId())){
+                relayedProbes.remove(pingRequestTimeout.getTarget().getId());
+            }
         }
     };
 
     private Handler<SuspectTimeout> suspectTimeoutHandler = new Handler<SuspectTimeout>() {
         @Override
         public void handle(SuspectTimeout suspectTimeoutEvent) {
+            if(probesInFlight.remove(suspectTimeoutEvent.getSuspectTimeoutID()) == null){
+                return;
+            }
             updateLocalview.clear();
             Status localStatus = localStateNodes.get(suspectTimeoutEvent.getDeadPeer().getId());
             if(localStatus != null){
@@ -216,8 +349,146 @@ public class SwimComp extends ComponentDefinition {
                         new Status(StatusType.DEAD,localStatus.getIncarnationNo(),  deathTimeoutEvent.getDeadPeer(),selfAddress));
             }
             updateLocalState(updateLocalview);
+            if(localStatus != null){
+                broadcast(localStateNodes.get(deathTimeoutEvent.getDeadPeer().getId()));
+            }
+        }
+    };
+    //-------------------------------------- Broadcast -------------------------------------------------------------//
+    //  Deaths, leaves and refutations are pushed to a few random members, each of which forwards them once.        //
+    //---------------------------------------------------------------------------------------------------------------//
+    private Handler<NetBroadcast> broadcastHandler = new Handler<NetBroadcast>() {
+        @Override
+        public void handle(NetBroadcast netBroadcastEvent) {
+            Status update = netBroadcastEvent.getContent().getUpdate();
+            if(!markBroadcast(update)){
+                return;
+            }
+            if(update.isDead() || update.isLeft()){
+                UUID tID = suspectedNodes.remove(update.getstatusOwner().getId());
+                if(tID != null)
+                    cancelDeathTimeout(tID);
+            }
+            updateLocalview.clear();
+            updateLocalview.put(update.getstatusOwner().getId(), update);
+            updateLocalState(updateLocalview);
+            pushBroadcast(update, netBroadcastEvent.getSource());
         }
     };
+    //-------------------------------------- Join ------------------------------------------------------------------//
+    //  A joining node asks one bootstrap node for its whole view, which is streamed back in JOIN_CHUNK_SIZE chunks. //
+    //---------------------------------------------------------------------------------------------------------------//
+
+    private Handler<NetJoinRequest> joinRequestHandler = new Handler<NetJoinRequest>() {
+        @Override
+        public void handle(NetJoinRequest netJoinRequestEvent) {
+            NatedAddress joiner = netJoinRequestEvent.getSource();
+            localStateNodes.put(selfAddress.getId(), new Status(StatusType.ALIVE,incarnationNumber,selfAddress,selfAddress));
+            updateLocalview.clear();
+            updateLocalview.put(joiner.getId(), netJoinRequestEvent.getContent().getJoinerStatus());
+            updateLocalState(updateLocalview);
+
+            int totalChunks = (localStateNodes.size() + JOIN_CHUNK_SIZE - 1) / JOIN_CHUNK_SIZE;
+            int chunkNo = 0;
+            SortedMap<Integer,Status> chunk = new TreeMap<>();
+            for(Map.Entry<Integer,Status> entry : localStateNodes.entrySet()){
+                chunk.put(entry.getKey(), entry.getValue());
+                if(chunk.size() == JOIN_CHUNK_SIZE){
+                    trigger(new NetJoinResponse(selfAddress, joiner, netJoinRequestEvent.getContent().getJoinId(), chunkNo++, totalChunks, chunk), network);
+                    chunk.clear();
+                }
+            }
+            if(!chunk.isEmpty()){
+                trigger(new NetJoinResponse(selfAddress, joiner, netJoinRequestEvent.getContent().getJoinId(), chunkNo, totalChunks, chunk), network);
+            }
+            log.info("{} sent view of {} peers in {} chunks to joining peer {}", new Object[]{selfAddress.getId(), localStateNodes.size(), totalChunks, joiner});
+        }
+    };
+
+    private Handler<NetJoinResponse> joinResponseHandler = new Handler<NetJoinResponse>() {
+        @Override
+        public void handle(NetJoinResponse netJoinResponseEvent) {
+            JoinResponse response = netJoinResponseEvent.getContent();
+            if(joinId == null || !joinId.equals(response.getJoinId())){
+                log.debug("{} dropping late join chunk from {}", new Object[]{selfAddress.getId(), netJoinResponseEvent.getSource()});
+                return;
+            }
+            updateLocalState(response.getViewUpdate());
+            joinChunks.add(response.getChunkNo());
+            if(joinChunks.size() == response.getTotalChunks()){
+                log.info("{} joined through {} with view of {} peers", new Object[]{selfAddress.getId(), netJoinResponseEvent.getSource(), localStateNodes.size()});
+                cancelJoinTimeout();
+            }
+        }
+    };
+
+    private Handler<JoinTimeout> joinTimeoutHandler = new Handler<JoinTimeout>() {
+        @Override
+        public void handle(JoinTimeout joinTimeoutEvent) {
+            if(joinId == null || !joinId.equals(joinTimeoutEvent.getTimeoutId())){
+                return;
+            }
+            joinId = null;
+            if(joinAttempts < JOIN_ATTEMPTS && joinAttempts < bootstrapNodes.size()){
+                log.info("{} join through {} timed out, retrying", new Object[]{selfAddress.getId(), joinTimeoutEvent.getBootstrapPeer()});
+                requestJoin();
+            }else{
+                log.warn("{} could not fetch a full view after {} attempts, relying on gossip", new Object[]{selfAddress.getId(), joinAttempts});
+            }
+        }
+    };
+
+    private Handler<NetBootstrap.Sample> bootstrapSampleHandler = new Handler<NetBootstrap.Sample>() {
+        @Override
+        public void handle(NetBootstrap.Sample netSampleEvent) {
+            for(NatedAddress peer : netSampleEvent.getContent().getPeers()){
+                if(!peer.equals(selfAddress) && !bootstrapNodes.contains(peer)){
+                    bootstrapNodes.add(peer);
+                }
+            }
+            log.info("{} bootstrap server returned sample:{}", new Object[]{selfAddress.getId(), netSampleEvent.getContent().getPeers()});
+            if(pingTimeoutId == null && !bootstrapNodes.isEmpty()){
+                startProbing();
+            }
+        }
+    };
+
+    private Handler<BootstrapHeartbeat> bootstrapHeartbeatHandler = new Handler<BootstrapHeartbeat>() {
+        @Override
+        public void handle(BootstrapHeartbeat event) {
+            trigger(new NetBootstrap.Register(selfAddress, bootstrapServer), network);
+            if(bootstrapNodes.isEmpty()){
+                //the server had nobody to offer yet, ask again until it does
+                trigger(new NetBootstrap.SampleRequest(selfAddress, bootstrapServer, BOOTSTRAP_SAMPLE_SIZE), network);
+            }
+        }
+    };
+
+    private void startProbing() {
+        requestJoin();
+        schedulePeriodicPing();
+        shedulePeriodicLocalViewPrint();
+    }
+
+    /**
+     * Asks the next untried bootstrap node for its view. The first attempt starts at a random bootstrap node and
+     * every retry takes the one after it, so a node that just timed out is not asked again.
+     */
+    private void requestJoin() {
+        if(bootstrapNodes.isEmpty()){
+            return;
+        }
+        if(joinAttempts == 0){
+            joinStart = rand.nextInt(bootstrapNodes.size());
+        }
+        NatedAddress bootstrapPeer = bootstrapNodes.get((joinStart + joinAttempts) % bootstrapNodes.size());
+        joinAttempts++;
+        joinChunks.clear();
+        joinId = scheduleJoinTimeout(bootstrapPeer,config.joinTimeout);
+        trigger(new NetJoinRequest(selfAddress, bootstrapPeer, joinId,
+                new Status(StatusType.ALIVE,incarnationNumber,selfAddress,selfAddress)), network);
+    }
+
     private Handler<PeriodicLocalViewPrint> printHandler = new Handler<PeriodicLocalViewPrint>() {
         @Override
         public void handle(PeriodicLocalViewPrint deathTimeoutEvent) {
@@ -226,18 +497,48 @@ public class SwimComp extends ComponentDefinition {
     };
 
 
+    /**
+     * Merges an incoming view into localStateNodes. Both maps are ordered by node id, so they are walked
+     * once side by side instead of looking every incoming entry up in the local tree. Known peers are
+     * updated in place; unknown peers are collected and inserted as one batch at the end.
+     */
     private void updateLocalState(Map<Integer,Status> peers) {
-        peers.forEach((key_natAddress, value_status) ->{
-            localStateNodes.merge(key_natAddress, value_status, (local, incoming) ->
-                    mergeViews(key_natAddress,incoming,local) );
-
-        });
-
+        SortedMap<Integer,Status> incomingView = (peers instanceof SortedMap) ? (SortedMap<Integer,Status>) peers : new TreeMap<>(peers);
+        Map<Integer,Status> newPeers = new TreeMap<>();
+        int mergedPeers = 0;
+        Iterator<Map.Entry<Integer,Status>> localIt = localStateNodes.entrySet().iterator();
+        Map.Entry<Integer,Status> local = localIt.hasNext() ? localIt.next() : null;
+        for(Map.Entry<Integer,Status> incoming : incomingView.entrySet()){
+            while(local != null && local.getKey().compareTo(incoming.getKey()) < 0){
+                local = localIt.hasNext() ? localIt.next() : null;
+            }
+            Status merged;
+            if(local != null && local.getKey().equals(incoming.getKey())){
+                merged = mergeViews(incoming.getKey(), incoming.getValue(), local.getValue());
+                local.setValue(merged);
+                mergedPeers++;
+            }else{
+                merged = incoming.getValue();
+                newPeers.put(incoming.getKey(), merged);
+            }
+            if(merged.isDead() || merged.isLeft()){
+                phiDetector.remove(incoming.getKey());
+            }
+        }
+        localStateNodes.putAll(newPeers);
+        log.debug("{} merged view of {} peers: {} known, {} new", new Object[]{selfAddress.getId(), incomingView.size(), mergedPeers, newPeers.size()});
+        if(!refutationTargets.isEmpty()){
+            refute();
+        }
     }
     private Status mergeViews(Integer key_natAddress, Status incoming, Status local) {
         Status newStatusValue;
         if((key_natAddress.equals(selfAddress.getId()) && (incoming.isSuspected())) ){
-            incarnationNumber++;
+            //a suspicion of an older incarnation is already refuted, its reporter just has not heard yet
+            if(incoming.getIncarnationNo() >= incarnationNumber){
+                incarnationNumber++;
+            }
+            refutationTargets.add(incoming.getStatusReporter());
             newStatusValue = new Status(StatusType.ALIVE,incarnationNumber, selfAddress,selfAddress);
             //Local Alive
         }else if( (incoming.isSuspected() && local.isAlive())){
@@ -278,10 +579,10 @@ public class SwimComp extends ComponentDefinition {
                 newStatusValue = new Status(incoming.getStatusType(),incoming.getIncarnationNo(), incoming.getstatusOwner(),selfAddress);
             }
 
-        }else if(incoming.isDead()){
+        }else if(incoming.isDead() || incoming.isLeft()){
             newStatusValue = new Status(incoming.getStatusType(),incoming.getIncarnationNo(),  incoming.getstatusOwner(),selfAddress);
 
-        }else if((incoming.isAlive())&&(local.isDead())){
+        }else if((incoming.isAlive())&&(local.isDead() || local.isLeft())){
             newStatusValue = new Status(local.getStatusType(),local.getIncarnationNo(), local.getstatusOwner(),selfAddress);
         }
         else{
@@ -297,11 +598,10 @@ public class SwimComp extends ComponentDefinition {
     //---------------------------------------------------------------------------------------------------------------//
     protected List<NatedAddress> selectRandomPeer1(List<NatedAddress> peerlist,int nrofRequiredNodes)
     {
-        Random random =new Random();
         NatedAddress randompeer;
         List<NatedAddress> randompeers = new ArrayList<>();
         while(randompeers.size() < nrofRequiredNodes){
-            randompeer = peerlist.get(random.nextInt(peerlist.size()));
+            randompeer = peerlist.get(rand.nextInt(peerlist.size()));
             if(!(randompeer.equals(selfAddress) && randompeer != null))
                 randompeers.add(randompeer);
         }
@@ -309,38 +609,203 @@ public class SwimComp extends ComponentDefinition {
     }
 
 
-    private List<NatedAddress> getListofLocalState(Map<Integer, Status> state){
-        List<NatedAddress> listofPeers = new ArrayList<>();
-        Map<Integer,NatedAddress> natedAddressMap = new TreeMap<>();
-        for(NatedAddress natedAddress : bootstrapNodes){
-            natedAddressMap.put(natedAddress.getId(),natedAddress);
+    /**
+     * Probes still waiting for their direct pong. Probes that went INDIRECT are left to the helpers and the
+     * suspect timeout, so they do not hold back the next period's probe.
+     */
+    private int directProbesInFlight(){
+        int direct = 0;
+        for(Probe probe : probesInFlight.values()){
+            if(probe.state == ProbeState.DIRECT){
+                direct++;
+            }
+        }
+        return direct;
+    }
+
+    /**
+     * Members that may be probed next: every known member that is not dead, not myself, not already being
+     * probed and not heard from within the liveness window. Falls back to the bootstrap nodes while the local
+     * view is still empty.
+     */
+    private List<NatedAddress> probeCandidates(){
+        Set<NatedAddress> probed = new HashSet<>();
+        for(Probe probe : probesInFlight.values()){
+            probed.add(probe.target);
+        }
+        long now = clock.now();
+        List<NatedAddress> candidates = new ArrayList<>();
+        int fresh = 0;
+        for(Status status : localStateNodes.values()){
+            NatedAddress peer = status.getstatusOwner();
+            if(status.isDead() || status.isLeft() || peer.equals(selfAddress) || probed.contains(peer)){
+                continue;
+            }
+            Long heard = lastHeard.get(peer.getId());
+            if(heard != null && now - heard < config.livenessWindow){
+                fresh++;
+                continue;
+            }
+            candidates.add(peer);
+        }
+        if(fresh > 0 && candidates.isEmpty()){
+            log.debug("{} all {} probe candidates heard from recently, skipping probe", new Object[]{selfAddress.getId(), fresh});
+            return candidates;
+        }
+        if(candidates.isEmpty()){
+            for(NatedAddress peer : bootstrapNodes){
+                if(!probed.contains(peer)){
+                    candidates.add(peer);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Up to nrMembers random members that are neither dead nor gone, other than myself and the excluded
+     * peers. Used to pick indirect probe helpers and broadcast targets.
+     */
+    private List<NatedAddress> selectRandomMembers(int nrMembers, NatedAddress... excluded){
+        List<NatedAddress> excludedPeers = Arrays.asList(excluded);
+        List<NatedAddress> candidates = new ArrayList<>();
+        for(Status status : localStateNodes.values()){
+            NatedAddress peer = status.getstatusOwner();
+            if(!status.isDead() && !status.isLeft() && !peer.equals(selfAddress) && !excludedPeers.contains(peer)){
+                candidates.add(peer);
+            }
         }
-        for(Integer peer : state.keySet()){
-            if(natedAddressMap.get(peer) != null)
-                listofPeers.add(natedAddressMap.get(peer));
+        List<NatedAddress> members = selectRandomPeer(selfAddress, candidates, Math.min(nrMembers, candidates.size()));
+        return members == null ? Collections.<NatedAddress>emptyList() : members;
+    }
+
+    /**
+     * A refutation races the death timers of every member that holds the suspicion, so it is not left to the
+     * next pings and pongs. It goes straight to the members that reported the suspicion to me, then to
+     * ln(N) + 1 random others as a broadcast.
+     */
+    private void refute(){
+        Status refutation = localStateNodes.get(selfAddress.getId());
+        refutationTargets.remove(selfAddress);
+        refutationTargets.remove(null);
+        for(NatedAddress reporter : refutationTargets){
+            trigger(new NetBroadcast(selfAddress, reporter, refutation), network);
+        }
+        log.info("{} refuting suspicion at incarnation {} to reporters {}", new Object[]{selfAddress.getId(), incarnationNumber, refutationTargets});
+        if(markBroadcast(refutation)){
+            pushBroadcast(refutation, refutationTargets.toArray(new NatedAddress[refutationTargets.size()]));
+        }
+        refutationTargets.clear();
+    }
+
+    /**
+     * Starts an infection-style broadcast of an update originating here.
+     */
+    private void broadcast(Status update){
+        if(update != null && markBroadcast(update)){
+            pushBroadcast(update);
+        }
+    }
+
+    /**
+     * Sends an update to ln(N) + 1 random members, which is enough for an epidemic to reach the whole group
+     * with high probability, skipping the member the update is about and the peers that already have it.
+     * N counts only the members that are alive or suspected; dead and left entries stay in the view but no
+     * longer take part in the epidemic.
+     */
+    private void pushBroadcast(Status update, NatedAddress... informed){
+        int live = 0;
+        for(Status status : localStateNodes.values()){
+            if(status.isAlive() || status.isSuspected()){
+                live++;
+            }
+        }
+        int fanout = (int) Math.ceil(Math.log(live + 1)) + 1;
+        NatedAddress[] excluded = Arrays.copyOf(informed, informed.length + 1);
+        excluded[informed.length] = update.getstatusOwner();
+        for(NatedAddress peer : selectRandomMembers(fanout, excluded)){
+            trigger(new NetBroadcast(selfAddress, peer, update), network);
+        }
+        log.debug("{} pushed {} of {} at incarnation {} to {} members", new Object[]{selfAddress.getId(),
+                update.getStatusType(), update.getstatusOwner(), update.getIncarnationNo(), fanout});
+    }
+
+    /**
+     * Remembers the newest update broadcast for each member, so every update is forwarded at most once.
+     * Returns false if this update, or one that overrides it, was already seen.
+     */
+    private boolean markBroadcast(Status update){
+        Integer id = update.getstatusOwner().getId();
+        Status seen = lastBroadcast.get(id);
+        if(seen != null && (seen.getIncarnationNo() > update.getIncarnationNo()
+                || (seen.getIncarnationNo() == update.getIncarnationNo() && precedence(seen) >= precedence(update)))){
+            return false;
+        }
+        lastBroadcast.put(id, update);
+        return true;
+    }
+
+    /**
+     * At the same incarnation a leave overrides a death, which overrides a suspicion, which overrides alive.
+     */
+    private static int precedence(Status status){
+        switch(status.getStatusType()){
+            case LEFT: return 3;
+            case DEAD: return 2;
+            case SUSPECTED: return 1;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Any ack for a probe, direct or relayed by a helper, completes it whatever phase it is in and cancels
+     * the timer of that phase.
+     */
+    private void completeProbeOf(NatedAddress target){
+        for(Probe probe : probesInFlight.values()){
+            if(probe.target.equals(target)){
+                completeProbe(probe.probeId);
+                return;
+            }
+        }
+    }
+
+    private void completeProbe(UUID probeId){
+        Probe probe = probesInFlight.remove(probeId);
+        if(probe != null){
+            trigger(new CancelTimeout(probe.timeoutId), timer);
+            if(probe.state == ProbeState.INDIRECT){
+                log.debug("{} indirect ack from {} cancelled its suspicion", new Object[]{selfAddress.getId(), probe.target});
+            }
         }
-        return listofPeers;
     }
 
+    /**
+     * With a phi threshold configured the direct pong timeout is the point where phi of the target crosses the
+     * threshold, capped at one protocol period. Members without enough history use the fixed pong timeout.
+     */
+    private long pongTimeoutFor(NatedAddress target){
+        if(config.phiThreshold <= 0){
+            return config.pongTimeout;
+        }
+        return Math.min(config.probePeriod, phiDetector.timeout(target.getId(), config.phiThreshold, config.pongTimeout));
+    }
 
     private static List<NatedAddress> shuffleandSelect(NatedAddress selfAddress, List<NatedAddress> peerlist, int nrofRequiredNodes, Random r) {
         int peerlistLen= peerlist.size();
-        Random random =new Random();
-        NatedAddress randompeer;
         List<NatedAddress> randompeers = new ArrayList<>();
         if (peerlistLen < nrofRequiredNodes) return null;
         for (int i = peerlistLen - 1; i >= peerlistLen - nrofRequiredNodes; --i)
         { Collections.swap(peerlist, i , r.nextInt(i + 1)); }
-        while(randompeers.size() < nrofRequiredNodes){
-            randompeer = peerlist.get(random.nextInt(peerlistLen));
-            if(!(randompeer.equals(selfAddress) && randompeer != null))
-                randompeers.add(randompeer);
-            //break;
+        //the shuffled tail is a sample without repetitions
+        for (int i = peerlistLen - 1; i >= peerlistLen - nrofRequiredNodes; --i){
+            if(!peerlist.get(i).equals(selfAddress))
+                randompeers.add(peerlist.get(i));
         }
         return randompeers;
     }
-    private static List<NatedAddress> selectRandomPeer(NatedAddress selfAddress,List<NatedAddress> listofpeers, int nrofRequiredNodes) {
-        List<NatedAddress> randompeers = shuffleandSelect(selfAddress, listofpeers, nrofRequiredNodes, ThreadLocalRandom.current());
+    private List<NatedAddress> selectRandomPeer(NatedAddress selfAddress,List<NatedAddress> listofpeers, int nrofRequiredNodes) {
+        List<NatedAddress> randompeers = shuffleandSelect(selfAddress, listofpeers, nrofRequiredNodes, rand);
         return randompeers;
     }
     public void printLocalView() {
@@ -355,7 +820,7 @@ public class SwimComp extends ComponentDefinition {
                 suspected.append( status.getstatusOwner());
                 suspected.append("  ");
                 Suspected++;
-            }else if(status.getStatusType().equals(StatusType.DEAD)){
+            }else if(status.getStatusType().equals(StatusType.DEAD) || status.getStatusType().equals(StatusType.LEFT)){
                 dead.append("  ");
                 dead.append( status.getstatusOwner());
                 dead.append("  ");
@@ -372,9 +837,18 @@ public class SwimComp extends ComponentDefinition {
     //                                                                                                               //
     //---------------------------------------------------------------------------------------------------------------//
     private void schedulePeriodicPing() {
-        SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(3000, 3000);
+        long probeInterval = config.probePeriod / config.probesPerPeriod;
+        SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(probeInterval, probeInterval);
         PingTimeout sc = new PingTimeout(spt);
         spt.setTimeoutEvent(sc);
+        pingTimeoutId = sc.getTimeoutId();
+        trigger(spt, timer);
+    }
+    private void scheduleBootstrapHeartbeat() {
+        SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(BOOTSTRAP_HEARTBEAT_PERIOD, BOOTSTRAP_HEARTBEAT_PERIOD);
+        BootstrapHeartbeat sc = new BootstrapHeartbeat(spt);
+        spt.setTimeoutEvent(sc);
+        bootstrapHeartbeatId = sc.getTimeoutId();
         trigger(spt, timer);
     }
     private void shedulePeriodicLocalViewPrint(){
@@ -383,25 +857,26 @@ public class SwimComp extends ComponentDefinition {
         spt.setTimeoutEvent(sc);
         trigger(spt, timer);
     }
-    private UUID schedulePongTimeout(NatedAddress randomPeer,long delay) {
-        ScheduleTimeout scheduleTimeout = new ScheduleTimeout(delay);//2 seconds
-        PongTimeout sc = new PongTimeout(scheduleTimeout,randomPeer);
+    private UUID schedulePongTimeout(NatedAddress randomPeer, UUID probeId, long delay) {
+        ScheduleTimeout scheduleTimeout = new ScheduleTimeout(delay);
+        PongTimeout sc = new PongTimeout(scheduleTimeout,randomPeer,probeId);
         scheduleTimeout.setTimeoutEvent(sc);
-        UUID pongTimeoutId = sc.getTimeoutId();
         trigger(scheduleTimeout, timer);
-        return pongTimeoutId;
+        return sc.getTimeoutId();
     }
-    private void scheduleSuspectTimeout(NatedAddress suspectedPeer, UUID pingRequesttId,long delay) {
+    private UUID scheduleSuspectTimeout(NatedAddress suspectedPeer, UUID pingRequesttId,long delay) {
         ScheduleTimeout scheduleTimeout = new ScheduleTimeout(delay);
         SuspectTimeout sc = new SuspectTimeout(scheduleTimeout,suspectedPeer,pingRequesttId);
         scheduleTimeout.setTimeoutEvent(sc);
         trigger(scheduleTimeout, timer);
+        return sc.getTimeoutId();
     }
-    private void schedulePingRequestTimeout(UUID pingSuspectRequesttId,long delay) {
+    private UUID schedulePingRequestTimeout(UUID pingSuspectRequesttId, NatedAddress target, long delay) {
         ScheduleTimeout scheduleTimeout = new ScheduleTimeout(delay);
-        PingRequestTimeout sc = new PingRequestTimeout(scheduleTimeout,pingSuspectRequesttId);
+        PingRequestTimeout sc = new PingRequestTimeout(scheduleTimeout,pingSuspectRequesttId,target);
         scheduleTimeout.setTimeoutEvent(sc);
         trigger(scheduleTimeout, timer);
+        return sc.getTimeoutId();
     }
     private UUID scheduleDeathTimeout(NatedAddress deadPeer, long delay) {
         ScheduleTimeout scheduleTimeout = new ScheduleTimeout(delay);
@@ -411,19 +886,26 @@ public class SwimComp extends ComponentDefinition {
         trigger(scheduleTimeout, timer);
         return suspectTID;
     }
-    private void cancelPingRequestTimeout(UUID pongTimeoutId, NatedAddress source) {
-        CancelTimeout cpt = new CancelTimeout(pongTimeoutId);
+    private UUID scheduleJoinTimeout(NatedAddress bootstrapPeer, long delay) {
+        ScheduleTimeout scheduleTimeout = new ScheduleTimeout(delay);
+        JoinTimeout sc = new JoinTimeout(scheduleTimeout,bootstrapPeer);
+        scheduleTimeout.setTimeoutEvent(sc);
+        trigger(scheduleTimeout, timer);
+        return sc.getTimeoutId();
+    }
+    private void cancelJoinTimeout() {
+        trigger(new CancelTimeout(joinId), timer);
+        joinId = null;
+    }
+    private void cancelPingRequestTimeout(UUID timeoutId, NatedAddress source) {
+        CancelTimeout cpt = new CancelTimeout(timeoutId);
         trigger(cpt, timer);
     }
     private void cancelPeriodicPing() {
-        CancelTimeout cpt = new CancelTimeout(pingTimeoutId);
+        CancelPeriodicTimeout cpt = new CancelPeriodicTimeout(pingTimeoutId);
         trigger(cpt, timer);
         pingTimeoutId = null;
     }
-    private void cancelPongTimeout(UUID timeoutId, NatedAddress source) {
-        trigger(new CancelTimeout(timeoutId), timer);
-        pongTimeoutId = null;
-    }
     private void cancelDeathTimeout(UUID timeoutId) {
         trigger(new CancelTimeout(timeoutId), timer);
     }
@@ -433,6 +915,46 @@ public class SwimComp extends ComponentDefinition {
     //                                                                                                               //
     //---------------------------------------------------------------------------------------------------------------//
 
+    //-------------------------------------- Probes ------------------------------------------------------------------//
+    //  A probe starts DIRECT (waiting for the pong), moves to INDIRECT when the pong times out and helpers are    //
+    //  asked to ping the target, and ends in suspicion when the suspect timeout fires. Any ack completes it.     //
+    //---------------------------------------------------------------------------------------------------------------//
+
+    private enum ProbeState {
+        DIRECT,
+        INDIRECT
+    }
+
+    private static class Probe {
+        private final UUID probeId;
+        private final NatedAddress target;
+        private ProbeState state = ProbeState.DIRECT;
+        private UUID timeoutId;
+        private final long startedAt;
+
+        public Probe(UUID probeId, NatedAddress target, long startedAt) {
+            this.probeId = probeId;
+            this.target = target;
+            this.startedAt = startedAt;
+        }
+    }
+
+    /**
+     * Helper side of indirect probing: one ping to the target on behalf of every requester that asked for it
+     * while it was outstanding. Requesters are keyed by their own probe id, which the relayed pong must carry.
+     */
+    private static class RelayedProbe {
+        private final UUID helperProbeId;
+        private final NatedAddress target;
+        private final Map<UUID,NatedAddress> requesters = new HashMap<>();
+        private UUID timeoutId;
+
+        public RelayedProbe(UUID helperProbeId, NatedAddress target) {
+            this.helperProbeId = helperProbeId;
+            this.target = target;
+        }
+    }
+
     private static class PingTimeout extends Timeout {
         UUID tID;
         public PingTimeout(SchedulePeriodicTimeout request) {
@@ -443,11 +965,10 @@ public class SwimComp extends ComponentDefinition {
     private class PongTimeout extends Timeout{
         private NatedAddress peer;
         private  UUID pongTIDd;
-        public PongTimeout(ScheduleTimeout schedulePeriodicTimeout, NatedAddress peer) {
+        public PongTimeout(ScheduleTimeout schedulePeriodicTimeout, NatedAddress peer, UUID probeId) {
             super(schedulePeriodicTimeout);
             this.peer = peer;
-            pongTimeoutId = getTimeoutId();
-            this.pongTIDd = pongTimeoutId;
+            this.pongTIDd = probeId;
 
         }
         public NatedAddress getSuspectedPeer(){
@@ -477,14 +998,20 @@ public class SwimComp extends ComponentDefinition {
 
     private class PingRequestTimeout extends Timeout{
         private UUID pingSuspectRequesttId;
-        public PingRequestTimeout(ScheduleTimeout scheduleTimeout, UUID pingSuspectRequesttId) {
+        private NatedAddress target;
+        public PingRequestTimeout(ScheduleTimeout scheduleTimeout, UUID pingSuspectRequesttId, NatedAddress target) {
             super(scheduleTimeout);
             this.pingSuspectRequesttId = pingSuspectRequesttId;
+            this.target = target;
         }
 
         public UUID getPingSuspectRequesttId() {
             return pingSuspectRequesttId;
         }
+
+        public NatedAddress getTarget() {
+            return target;
+        }
     }
 
     private class DeathTimeout  extends Timeout{
@@ -498,6 +1025,23 @@ public class SwimComp extends ComponentDefinition {
         }
     }
 
+    private class JoinTimeout extends Timeout{
+        private NatedAddress bootstrapPeer;
+        public JoinTimeout(ScheduleTimeout scheduleTimeout, NatedAddress bootstrapPeer) {
+            super(scheduleTimeout);
+            this.bootstrapPeer = bootstrapPeer;
+        }
+        public NatedAddress getBootstrapPeer(){
+            return bootstrapPeer;
+        }
+    }
+
+    private class BootstrapHeartbeat extends Timeout{
+        public BootstrapHeartbeat(SchedulePeriodicTimeout spt) {
+            super(spt);
+        }
+    }
+
     private class PeriodicLocalViewPrint extends Timeout{
         public PeriodicLocalViewPrint(SchedulePeriodicTimeout spt) {
             super(spt);
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim;
+
+/**
+ * Protocol parameters of SwimComp.
+ */
+public class SwimConfig {
+
+    /**
+     * length of one protocol period in ms
+     */
+    public final long probePeriod;
+    /**
+     * number of direct probes started per protocol period, evenly spread over the period. This is also the
+     * maximum number of direct probes in flight at any time.
+     */
+    public final int probesPerPeriod;
+    /**
+     * time to wait for a direct pong before falling back to indirect probing
+     */
+    public final long pongTimeout;
+    /**
+     * time to wait for a bootstrap peer to answer a join request before trying the next one
+     */
+    public final long joinTimeout;
+    /**
+     * number of helpers asked to ping a target that missed its direct pong
+     */
+    public final int indirectProbes;
+    /**
+     * members heard from, by any message, within this many ms are not probed
+     */
+    public final long livenessWindow;
+    /**
+     * a helper asked to ping a target it heard from within this many ms acks on its behalf straight away
+     */
+    public final long ackCacheWindow;
+    /**
+     * phi level at which a silent probe target goes to indirect probing, see PhiAccrualDetector. 0 keeps the
+     * fixed pongTimeout for every member.
+     */
+    public final double phiThreshold;
+
+    public SwimConfig(long probePeriod, int probesPerPeriod, long pongTimeout, long joinTimeout, int indirectProbes,
+            long livenessWindow, long ackCacheWindow, double phiThreshold) {
+        if (probesPerPeriod < 1) {
+            throw new IllegalArgumentException("at least one probe per period is required");
+        }
+        this.probePeriod = probePeriod;
+        this.probesPerPeriod = probesPerPeriod;
+        this.pongTimeout = pongTimeout;
+        this.joinTimeout = joinTimeout;
+        this.indirectProbes = indirectProbes;
+        this.livenessWindow = livenessWindow;
+        this.ackCacheWindow = ackCacheWindow;
+        this.phiThreshold = phiThreshold;
+    }
+
+    public SwimConfig() {
+        this(3000, 1, 2000, 2000, 2, 3000, 500, 0);
+    }
+}
@@ -21,7 +21,15 @@
 package se.kth.swim.croupier;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
@@ -31,13 +39,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.kth.swim.croupier.internal.CroupierContainer;
 import se.kth.swim.croupier.internal.CroupierShuffle;
+import se.kth.swim.croupier.internal.CroupierShuffleCodec;
 import se.kth.swim.croupier.internal.CroupierView;
+import se.kth.swim.croupier.internal.ShuffleRto;
 import se.kth.swim.croupier.msg.CroupierDisconnected;
 import se.kth.swim.croupier.msg.CroupierJoin;
 import se.kth.swim.croupier.msg.CroupierSample;
+import se.kth.swim.croupier.msg.CroupierSampleDelta;
 import se.kth.swim.croupier.msg.CroupierUpdate;
+import se.kth.swim.croupier.util.Ageing;
 import se.kth.swim.croupier.util.OverlayHeaderImpl;
 import se.kth.swim.nat.NatedAddress;
+import se.kth.swim.util.Clock;
+import se.kth.swim.util.SeededRandom;
 import se.kth.swim.network.impl.BasicContentMsg;
 import se.kth.swim.network.impl.BasicHeader;
 import se.sics.kompics.ClassMatchedHandler;
@@ -59,11 +73,26 @@ import se.sics.kompics.timer.Timeout;
 import se.sics.kompics.timer.Timer;
 
 /**
+ * One croupier keeps a public and a private view for each of its overlays and
+ * shuffles all of them over a single exchange: one timer, and one request and
+ * response per partner carrying the descriptors of every overlay the partners
+ * share. Messages are stamped with the exchange id for the OverlayFilter.
+ *
  * @author Alex Ormenisan <aaor@sics.se>
  */
 public class CroupierComp extends ComponentDefinition {
 
   private final static Logger log = LoggerFactory.getLogger(CroupierComp.class);
+  private final static int PEER_SELECTION_ATTEMPTS = 3;
+  private final static int MAX_BACKOFF_EXPONENT = 6;
+  private final static double CHURN_GAIN = 0.2;
+  //the period is only rescheduled when it is off by more than this fraction
+  private final static double PERIOD_SLACK = 0.1;
+  //pull of a node's own type on its public ratio estimate per cycle, keeps the mean of all estimates on the
+  //actual ratio as nodes join and leave
+  private final static double RATIO_REVERSION = 0.02;
+  //lowest shuffle timeout, whatever the measured round trips
+  private final static long MIN_SHUFFLE_RTO = 100;
   Negative<CroupierControlPort> croupierControlPort = negative(CroupierControlPort.class);
   Negative<CroupierPort> croupierPort = negative(CroupierPort.class);
   Positive<Network> network = requires(Network.class);
@@ -72,32 +101,65 @@ public class CroupierComp extends ComponentDefinition {
   private NatedAddress self;
   private final CroupierConfig croupierConfig;
   private final String logPrefix;
-  private final int overlayId;
+  private final int exchangeId;
 
   private List<NatedAddress> bootstrapNodes;
-  private Object selfView;
-  private CroupierView publicView;
-  private CroupierView privateView;
+  private final Map<Integer, Overlay> overlays = new LinkedHashMap<Integer, Overlay>();
+  private final List<Overlay> overlayList = new ArrayList<Overlay>();
+  //overlay the next shuffle partner is drawn from, round robin
+  private int nextOverlay = 0;
 
   private UUID shuffleCycleId;
-  private UUID shuffleTimeoutId;
+  private final Map<UUID, PendingShuffle> pendingShuffles = new HashMap<UUID, PendingShuffle>();
+  //partners that recently timed out, by base address
+  private final Map<Address, Backoff> backoffs = new HashMap<Address, Backoff>();
+  private long shuffleCycles = 0;
+  private final ShuffleRto rto;
+  //moving average of the fraction of descriptors per shuffle that were new to the views, timeouts count as 1
+  private double churn = 1;
+  private long shufflePeriod;
+  //estimated fraction of public nodes, push-pull averaged with every shuffle partner
+  private double publicRatio;
+  //the estimate starts at the node's own type, views keep their configured size until it was averaged once
+  private boolean ratioMerged = false;
+  private final SeededRandom rand;
+  private final Clock clock;
+  private final CroupierShuffleCodec codec = new CroupierShuffleCodec();
+  //staleness of published samples
+  private long publishedSamples = 0;
+  private long publishedDescriptors = 0;
+  private long publishedAgeSum = 0;
+  //shuffle outcomes with open and with nated partners
+  private final long[] shufflesAnswered = new long[2];
+  private final long[] shufflesTimedOut = new long[2];
 
   public CroupierComp(CroupierInit init) {
     this.self = init.self;
     this.croupierConfig = init.croupierConfig;
-    this.overlayId = init.overlayId;
-    this.logPrefix = "<oid:" + overlayId + ",nid:" + self.getBaseAdr().toString() + ">";
+    this.exchangeId = init.exchangeId;
+    this.logPrefix = "<oid:" + init.overlayIds + ",nid:" + self.getBaseAdr().toString() + ">";
     this.bootstrapNodes = new ArrayList<NatedAddress>(init.bootstrapNodes);
 
     log.info("{} initiating with bootstrap nodes:{} ...", logPrefix, bootstrapNodes);
 
-    this.selfView = null;
     this.shuffleCycleId = null;
-    this.shuffleTimeoutId = null;
-
-    Random rand = new Random(init.seed + overlayId);
-    this.publicView = new CroupierView((Address) self.getBaseAdr(), croupierConfig.viewSize, rand);
-    this.privateView = new CroupierView((Address) self.getBaseAdr(), croupierConfig.viewSize, rand);
+    this.shufflePeriod = croupierConfig.shufflePeriod;
+    this.publicRatio = self.isOpen() ? 1 : 0;
+    this.rand = new SeededRandom(init.seed);
+    this.clock = init.clock;
+    //a quarter of the shortest shuffle period keeps the timeout clear of the jitter of any network fast enough to
+    //shuffle that often
+    this.rto = new ShuffleRto(Math.min(croupierConfig.shuffleTimeout,
+      Math.max(MIN_SHUFFLE_RTO, croupierConfig.minShufflePeriod / 4)), croupierConfig.shuffleTimeout);
+
+    for (int overlayId : init.overlayIds) {
+      Random rand = new Random(init.seed + overlayId);
+      Overlay overlay = new Overlay(overlayId,
+        new CroupierView((Address) self.getBaseAdr(), croupierConfig.viewSize, croupierConfig.maxDescriptorAge, rand),
+        new CroupierView((Address) self.getBaseAdr(), croupierConfig.viewSize, croupierConfig.maxDescriptorAge, rand));
+      overlays.put(overlayId, overlay);
+      overlayList.add(overlay);
+    }
 
     subscribe(handleStart, control);
     subscribe(handleStop, control);
@@ -115,7 +177,9 @@ public class CroupierComp extends ComponentDefinition {
     @Override
     public void handle(Start event) {
       log.info("{} starting...", logPrefix);
-      selfView = new Object();
+      for (Overlay overlay : overlayList) {
+        overlay.selfView = new Object();
+      }
       startShuffle();
         //TODO figure out the type of port to be used for going out event[CroupierJoin]
       //trigger(new CroupierJoin( bootstrapNodes.stream().collect(Collectors.toSet())),croupierControlPort);
@@ -129,12 +193,16 @@ public class CroupierComp extends ComponentDefinition {
     public void handle(Stop event) {
       log.info("{} stopping...", logPrefix);
       stopShuffle();
+      for (PendingShuffle pending : pendingShuffles.values()) {
+        trigger(new CancelTimeout(pending.timeoutId), timer);
+      }
+      pendingShuffles.clear();
     }
 
   };
 
   private void startShuffle() {
-    if (selfView == null) {
+    if (activeOverlays().isEmpty()) {
       log.info("{} no self view - not shuffling", new Object[]{logPrefix});
       return;
     }
@@ -149,7 +217,9 @@ public class CroupierComp extends ComponentDefinition {
   private void stopShuffle() {
     cancelPeriodicShuffle();
     log.info("{} stopped shuffle", new Object[]{logPrefix});
-    trigger(new CroupierDisconnected(overlayId), croupierControlPort);
+    for (Overlay overlay : overlayList) {
+      trigger(new CroupierDisconnected(overlay.overlayId), croupierControlPort);
+    }
   }
 
   private boolean connected() {
@@ -157,7 +227,28 @@ public class CroupierComp extends ComponentDefinition {
   }
 
   private boolean haveShufflePartners() {
-    return !bootstrapNodes.isEmpty() || !publicView.isEmpty() || !privateView.isEmpty();
+    if (!bootstrapNodes.isEmpty()) {
+      return true;
+    }
+    for (Overlay overlay : overlayList) {
+      if (!overlay.publicView.isEmpty() || !overlay.privateView.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * overlays with a self view, the only ones that take part in shuffles
+   */
+  private List<Overlay> activeOverlays() {
+    List<Overlay> active = new ArrayList<Overlay>();
+    for (Overlay overlay : overlayList) {
+      if (overlay.selfView != null) {
+        active.add(overlay);
+      }
+    }
+    return active;
   }
 
   Handler<CroupierJoin> handleJoin = new Handler<CroupierJoin>() {
@@ -191,9 +282,14 @@ public class CroupierComp extends ComponentDefinition {
     @Override
     public void handle(CroupierUpdate.View update) {
       log.trace("{} {}", logPrefix, update);
-      log.info("{} updating selfView:{}", new Object[]{logPrefix, update.selfView});
+      log.info("{} updating selfView:{} of overlay:{}", new Object[]{logPrefix, update.selfView,
+        update.overlayId == null ? "all" : update.overlayId});
 
-      selfView = (update.selfView == null ? selfView : update.selfView);
+      for (Overlay overlay : overlayList) {
+        if (update.overlayId == null || update.overlayId == overlay.overlayId) {
+          overlay.selfView = (update.selfView == null ? overlay.selfView : update.selfView);
+        }
+      }
 
       if (!connected()) {
         startShuffle();
@@ -201,25 +297,185 @@ public class CroupierComp extends ComponentDefinition {
     }
   };
 
-  private NatedAddress selectPeerToShuffleWith(double temperature) {
-    if (!bootstrapNodes.isEmpty()) {
-      return bootstrapNodes.remove(0);
+  /**
+   * Bootstrap nodes first, then a partner from the views of the active overlays in turn. A bootstrap node is
+   * only used up once it is picked, partners that back off or have a shuffle pending are not picked from the
+   * views.
+   */
+  private NatedAddress selectPeerToShuffleWith(List<Overlay> active, double temperature) {
+    Iterator<NatedAddress> it = bootstrapNodes.iterator();
+    while (it.hasNext()) {
+      NatedAddress bootstrapNode = it.next();
+      if (canShuffleWith(bootstrapNode)) {
+        it.remove();
+        return bootstrapNode;
+      }
+    }
+    Set<Address> busy = busyPartners();
+    for (int i = 0; i < active.size(); i++) {
+      Overlay overlay = active.get(nextOverlay++ % active.size());
+      //draw from the public view as often as public nodes occur, so open nodes get no more than their share
+      //of requests
+      boolean fromPublic = overlay.privateView.isEmpty()
+        || (!overlay.publicView.isEmpty() && rand.nextDouble() < publicRatio);
+      if (fromPublic && !overlay.publicView.isEmpty()) {
+        NatedAddress peer = overlay.publicView.selectPeerToShuffleWith(croupierConfig.policy, true, temperature,
+          busy);
+        if (peer != null) {
+          return peer;
+        }
+      }
+      if (!overlay.privateView.isEmpty()) {
+        NatedAddress peer = overlay.privateView.selectPeerToShuffleWith(croupierConfig.policy, true, temperature,
+          busy);
+        if (peer != null) {
+          return peer;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return base addresses of the partners that back off from a timeout or have a shuffle pending
+   */
+  private Set<Address> busyPartners() {
+    Set<Address> busy = new HashSet<Address>();
+    for (Map.Entry<Address, Backoff> backoff : backoffs.entrySet()) {
+      if (backoff.getValue().untilCycle > shuffleCycles) {
+        busy.add(backoff.getKey());
+      }
+    }
+    for (PendingShuffle pending : pendingShuffles.values()) {
+      busy.add((Address) pending.dest.getBaseAdr());
+    }
+    return busy;
+  }
+
+  private void mergePublicRatio(double partnerRatio) {
+    publicRatio = (publicRatio + partnerRatio) / 2;
+    ratioMerged = true;
+  }
+
+  /**
+   * Splits twice the configured view size between the public and the private views by the estimated public
+   * ratio, so that the union of the views samples both kinds of nodes in proportion. Neither view drops below
+   * a shuffle's worth of descriptors.
+   */
+  private void resizeViews() {
+    int total = 2 * croupierConfig.viewSize;
+    int min = Math.max(1, Math.min(croupierConfig.viewSize, croupierConfig.shuffleSize));
+    int publicSize = (int) Math.max(min, Math.min(total - min, Math.round(total * publicRatio)));
+    for (Overlay overlay : overlayList) {
+      if (overlay.publicView.getViewSize() != publicSize) {
+        overlay.publicView.setViewSize(publicSize);
+        overlay.privateView.setViewSize(total - publicSize);
+      }
+    }
+    log.debug("{} public ratio:{} - public view size:{} private view size:{}", new Object[]{logPrefix, publicRatio,
+      publicSize, total - publicSize});
+  }
+
+  /**
+   * A partner from the bootstrap nodes is offered every active overlay. Otherwise only the overlays that know the
+   * partner are shuffled with it, the one it was drawn from among them.
+   */
+  private List<Overlay> sharedOverlays(List<Overlay> active, NatedAddress peer) {
+    List<Overlay> shared = new ArrayList<Overlay>();
+    for (Overlay overlay : active) {
+      if (overlay.publicView.contains(peer) || overlay.privateView.contains(peer)) {
+        shared.add(overlay);
+      }
     }
-    NatedAddress node = null;
-    if (!publicView.isEmpty()) {
-      node = publicView.selectPeerToShuffleWith(croupierConfig.policy, true, temperature);
-    } else if (!privateView.isEmpty()) {
-      node = privateView.selectPeerToShuffleWith(croupierConfig.policy, true, temperature);
+    return shared.isEmpty() ? active : shared;
+  }
+
+  /**
+   * Ages the views of an overlay and copies a sample of each together with my own descriptor.
+   */
+  private CroupierShuffle.Descriptors copySets(Overlay overlay, UUID shuffleId, boolean initiator) {
+    overlay.publicView.incrementDescriptorAges();
+    overlay.privateView.incrementDescriptorAges();
+    Set<CroupierContainer> publicDescCopy = initiator
+      ? overlay.publicView.initiatorCopySet(shuffleId, croupierConfig.shuffleSize)
+      : overlay.publicView.receiverCopySet(shuffleId, croupierConfig.shuffleSize);
+    Set<CroupierContainer> privateDescCopy = initiator
+      ? overlay.privateView.initiatorCopySet(shuffleId, croupierConfig.shuffleSize)
+      : overlay.privateView.receiverCopySet(shuffleId, croupierConfig.shuffleSize);
+    if (self.isOpen()) {
+      publicDescCopy.add(new CroupierContainer(self, overlay.selfView));
+    } else {
+      privateDescCopy.add(new CroupierContainer(self, overlay.selfView));
+    }
+    return new CroupierShuffle.Descriptors(publicDescCopy, privateDescCopy);
+  }
+
+  /**
+   * Leaves the oldest descriptors out of a shuffle until its compact encoding fits the byte budget. My own
+   * descriptors always stay in. The shuffle is encoded once and each dropped descriptor takes its own share off
+   * the size; only when that estimate fits is the shuffle encoded again to confirm it.
+   */
+  private void fitToBudget(CroupierShuffle.Basic shuffle) {
+    Map<CroupierContainer, Integer> sizes = new IdentityHashMap<CroupierContainer, Integer>();
+    int size = codec.encodedSize(shuffle, sizes);
+    if (size <= croupierConfig.shuffleByteBudget) {
+      return;
+    }
+    List<Droppable> droppable = new ArrayList<Droppable>();
+    for (Map.Entry<Integer, CroupierShuffle.Descriptors> sets : shuffle.overlays.entrySet()) {
+      Overlay overlay = overlays.get(sets.getKey());
+      droppable(sets.getValue().publicNodes, overlay.publicView, droppable);
+      droppable(sets.getValue().privateNodes, overlay.privateView, droppable);
+    }
+    Collections.sort(droppable, OLDEST_FIRST);
+    Iterator<Droppable> it = droppable.iterator();
+    int dropped = 0;
+    while (size > croupierConfig.shuffleByteBudget) {
+      if (!it.hasNext()) {
+        log.warn("{} shuffle of {} bytes over the budget of {} with only self descriptors", new Object[]{logPrefix,
+          size, croupierConfig.shuffleByteBudget});
+        return;
+      }
+      Droppable next = it.next();
+      next.set.remove(next.descriptor);
+      next.view.unsent(shuffle.getId(), next.descriptor.getSource());
+      dropped++;
+      size -= sizes.get(next.descriptor);
+      if (size <= croupierConfig.shuffleByteBudget) {
+        sizes.clear();
+        size = codec.encodedSize(shuffle, sizes);
+      }
     }
-    return node;
+    log.debug("{} left {} descriptors out of shuffle:{} to fit {} bytes", new Object[]{logPrefix, dropped,
+      shuffle.getId(), croupierConfig.shuffleByteBudget});
+  }
+
+  private void droppable(Set<CroupierContainer> descriptors, CroupierView view, List<Droppable> droppable) {
+    for (CroupierContainer descriptor : descriptors) {
+      if (!descriptor.getSource().getBaseAdr().equals(self.getBaseAdr())) {
+        droppable.add(new Droppable(descriptor, descriptors, view));
+      }
+    }
+  }
+
+  /**
+   * @return the number of descriptors new to the views of the overlay
+   */
+  private int selectToKeep(Overlay overlay, UUID shuffleId, NatedAddress partner, CroupierShuffle.Descriptors sets) {
+    Set<CroupierContainer> publicNodes = sets == null ? Collections.<CroupierContainer>emptySet() : sets.publicNodes;
+    Set<CroupierContainer> privateNodes = sets == null ? Collections.<CroupierContainer>emptySet() : sets.privateNodes;
+    return overlay.publicView.selectToKeep(croupierConfig.policy, shuffleId, partner, publicNodes)
+      + overlay.privateView.selectToKeep(croupierConfig.policy, shuffleId, partner, privateNodes);
   }
 
   Handler<ShuffleCycle> handleShuffleCycle = new Handler<ShuffleCycle>() {
     @Override
     public void handle(ShuffleCycle event) {
       log.trace("{} {}", logPrefix, event);
-      log.debug("{} public view size:{}, private view size:{}, bootstrap nodes size:{}", new Object[]{logPrefix,
-        publicView.size(), privateView.size(), bootstrapNodes.size()});
+      for (Overlay overlay : overlayList) {
+        log.debug("{} overlay:{} public view size:{}, private view size:{}, bootstrap nodes size:{}", new Object[]{
+          logPrefix, overlay.overlayId, overlay.publicView.size(), overlay.privateView.size(), bootstrapNodes.size()});
+      }
 
       if (!haveShufflePartners()) {
         log.warn("{} no shuffle partners - disconnected", logPrefix);
@@ -227,45 +483,64 @@ public class CroupierComp extends ComponentDefinition {
         return;
       }
 
-      if (!publicView.isEmpty() || !privateView.isEmpty()) {
-        CroupierSample cs = new CroupierSample(overlayId, publicView.getAllCopy(), privateView.getAllCopy());
-        log.info("{} publishing sample \n public nodes:{} \n private nodes:{}", new Object[]{logPrefix, cs.publicSample,
-          cs.privateSample});
-        trigger(cs, croupierPort);
+      for (Overlay overlay : overlayList) {
+        publishSample(overlay);
       }
 
-      NatedAddress peer = selectPeerToShuffleWith(croupierConfig.softMaxTemperature);
-      if (peer == null || peer.getBaseAdr().equals(self.getBaseAdr())) {
-        log.error("{} this should not happen - logic error selecting peer", logPrefix);
-        throw new RuntimeException("Error selecting peer");
+      shuffleCycles++;
+      adaptShufflePeriod();
+      publicRatio = (1 - RATIO_REVERSION) * publicRatio + RATIO_REVERSION * (self.isOpen() ? 1 : 0);
+      if (ratioMerged) {
+        resizeViews();
       }
-
-      if (!peer.isOpen()) {
-        log.debug("{} did not pick a public node for shuffling - public view size:{}", new Object[]{logPrefix,
-          publicView.getAllCopy().size()});
+      if (pendingShuffles.size() >= croupierConfig.maxPendingShuffles) {
+        log.debug("{} {} shuffles outstanding - skipping cycle", logPrefix, pendingShuffles.size());
+        return;
       }
 
-      // NOTE:
-      publicView.incrementDescriptorAges();
-      privateView.incrementDescriptorAges();
+      List<Overlay> active = activeOverlays();
+      NatedAddress peer = null;
+      for (int i = 0; i < PEER_SELECTION_ATTEMPTS && peer == null; i++) {
+        peer = selectPeerToShuffleWith(active, croupierConfig.softMaxTemperature);
+        if (peer == null) {
+          break;
+        }
+        if (peer.getBaseAdr().equals(self.getBaseAdr())) {
+          log.error("{} this should not happen - logic error selecting peer", logPrefix);
+          throw new RuntimeException("Error selecting peer");
+        }
+        if (!canShuffleWith(peer)) {
+          peer = null;
+        }
+      }
+      if (peer == null) {
+        log.debug("{} no partner that is not backing off or busy - skipping cycle", logPrefix);
+        return;
+      }
 
-      Set<CroupierContainer> publicDescCopy = publicView.initiatorCopySet(croupierConfig.shuffleSize, peer);
-      Set<CroupierContainer> privateDescCopy = privateView.initiatorCopySet(croupierConfig.shuffleSize, peer);
+      if (!peer.isOpen()) {
+        log.debug("{} did not pick a public node for shuffling", new Object[]{logPrefix});
+      }
 
-      if (self.isOpen()) {
-        publicDescCopy.add(new CroupierContainer(self, selfView));
-      } else {
-        privateDescCopy.add(new CroupierContainer(self, selfView));
+      UUID shuffleId = rand.nextUUID();
+      Map<Integer, CroupierShuffle.Descriptors> sets = new HashMap<Integer, CroupierShuffle.Descriptors>();
+      for (Overlay overlay : sharedOverlays(active, peer)) {
+        if (croupierConfig.cyclonSwap) {
+          //before the copy sets, the partner's own descriptor is not worth sending back to it
+          overlay.publicView.detachPartner(shuffleId, peer, croupierConfig.shuffleSize);
+          overlay.privateView.detachPartner(shuffleId, peer, croupierConfig.shuffleSize);
+        }
+        sets.put(overlay.overlayId, copySets(overlay, shuffleId, true));
       }
 
       OverlayHeaderImpl<NatedAddress> requestHeader = new OverlayHeaderImpl(new BasicHeader(self, peer, Transport.UDP),
-        overlayId);
-      CroupierShuffle.Request requestContent = new CroupierShuffle.Request(UUID.randomUUID(), publicDescCopy,
-        privateDescCopy);
+        exchangeId);
+      CroupierShuffle.Request requestContent = new CroupierShuffle.Request(shuffleId, sets, publicRatio);
+      fitToBudget(requestContent);
       BasicContentMsg request = new BasicContentMsg(requestHeader, requestContent);
       log.trace("{} sending:{} to:{}", new Object[]{logPrefix, requestContent, peer});
       trigger(request, network);
-      scheduleShuffleTimeout(peer);
+      scheduleShuffleTimeout(shuffleId, peer, sets.keySet());
     }
   };
 
@@ -275,9 +550,9 @@ ClassMatchedHandler handleShuffleRequest
     @Override
     public void handle(CroupierShuffle.Request content, BasicContentMsg<CroupierShuffle.Request> msg) {
       OverlayHeaderImpl<NatedAddress> header = (OverlayHeaderImpl) msg.getHeader();
-      if (header.getOverlayId() != overlayId) {
-        log.error("{} message with header:{} not belonging to croupier overlay:{}", new Object[]{logPrefix, header,
-          overlayId});
+      if (header.getOverlayId() != exchangeId) {
+        log.error("{} message with header:{} not belonging to croupier exchange:{}", new Object[]{logPrefix, header,
+          exchangeId});
         throw new RuntimeException("message not belonging to croupier overlay");
       }
       NatedAddress reqSrc = msg.getHeader().getSource();
@@ -286,37 +561,46 @@ ClassMatchedHandler handleShuffleRequest
         throw new RuntimeException("tried to shuffle with myself");
       }
       log.trace("{} received:{} from:{}", new Object[]{logPrefix, content, reqSrc});
-      if (selfView == null) {
-        log.warn("{} not ready to shuffle - no self view available - {} tried to shuffle with me",
-          logPrefix, reqSrc);
+      log.debug("{} received from:{} \n overlays:{}", new Object[]{logPrefix, reqSrc, content.overlays});
+
+      //answer for the overlays I run and have a self view for, ignore the others
+      List<Overlay> shared = new ArrayList<Overlay>();
+      for (Integer overlayId : content.overlays.keySet()) {
+        Overlay overlay = overlays.get(overlayId);
+        if (overlay != null && overlay.selfView != null) {
+          shared.add(overlay);
+        }
+      }
+      if (shared.isEmpty()) {
+        log.warn("{} not ready to shuffle - no self view available for overlays:{} - {} tried to shuffle with me",
+          new Object[]{logPrefix, content.overlays.keySet(), reqSrc});
         return;
       }
 
-      log.debug("{} received from:{} \n public nodes:{} \n private nodes:{}",
-        new Object[]{logPrefix, msg.getHeader().getSource(), content.publicNodes, content.privateNodes});
-
-      publicView.incrementDescriptorAges();
-      privateView.incrementDescriptorAges();
-
-      Set<CroupierContainer> publicDescCopy = publicView.receiverCopySet(croupierConfig.shuffleSize, reqSrc);
-      Set<CroupierContainer> privateDescCopy = privateView.receiverCopySet(croupierConfig.shuffleSize, reqSrc);
-      if (self.isOpen()) {
-        publicDescCopy.add(new CroupierContainer(self, selfView));
-      } else {
-        privateDescCopy.add(new CroupierContainer(self, selfView));
+      Map<Integer, CroupierShuffle.Descriptors> sets = new HashMap<Integer, CroupierShuffle.Descriptors>();
+      for (Overlay overlay : shared) {
+        sets.put(overlay.overlayId, copySets(overlay, content.getId(), false));
       }
 
       OverlayHeaderImpl<NatedAddress> responseHeader = new OverlayHeaderImpl(
-        new BasicHeader(self, reqSrc, Transport.UDP), overlayId);
-      CroupierShuffle.Response responseContent = new CroupierShuffle.Response(content.getId(),
-        publicDescCopy, privateDescCopy);
+        new BasicHeader(self, reqSrc, Transport.UDP), exchangeId);
+      CroupierShuffle.Response responseContent = new CroupierShuffle.Response(content.getId(), sets,
+        publicRatio);
+      fitToBudget(responseContent);
       BasicContentMsg response = new BasicContentMsg(responseHeader, responseContent);
 
       log.trace("{} sending:{} to:{}", new Object[]{logPrefix, responseContent, reqSrc});
       trigger(response, network);
-
-      publicView.selectToKeep(reqSrc, content.publicNodes);
-      privateView.selectToKeep(reqSrc, content.privateNodes);
+      mergePublicRatio(content.publicRatio);
+
+      int added = 0;
+      int received = 0;
+      for (Overlay overlay : shared) {
+        CroupierShuffle.Descriptors theirs = content.overlays.get(overlay.overlayId);
+        added += selectToKeep(overlay, content.getId(), reqSrc, theirs);
+        received += theirs.publicNodes.size() + theirs.privateNodes.size();
+      }
+      recordChurn(added, received);
       if (!connected() && haveShufflePartners()) {
         startShuffle();
       }
@@ -329,9 +613,9 @@ ClassMatchedHandler handleShuffleRequest
     @Override
     public void handle(CroupierShuffle.Response content, BasicContentMsg<CroupierShuffle.Response> msg) {
       OverlayHeaderImpl<NatedAddress> header = (OverlayHeaderImpl) msg.getHeader();
-      if (header.getOverlayId() != overlayId) {
-        log.error("{} message with header:{} not belonging to croupier overlay:{}", new Object[]{logPrefix, header,
-          overlayId});
+      if (header.getOverlayId() != exchangeId) {
+        log.error("{} message with header:{} not belonging to croupier exchange:{}", new Object[]{logPrefix, header,
+          exchangeId});
         throw new RuntimeException("message not belonging to croupier overlay");
       }
       NatedAddress respSrc = msg.getHeader().getSource();
@@ -341,38 +625,157 @@ ClassMatchedHandler handleShuffleRequest
       }
       log.trace("{} received:{} from:{}", new Object[]{logPrefix, content, respSrc});
 
-      if (shuffleTimeoutId == null) {
+      PendingShuffle pending = pendingShuffles.remove(content.getId());
+      if (pending == null) {
         log.debug("{} req:{}  already timed out", new Object[]{logPrefix, content.getId(), respSrc});
         return;
       }
-
-      publicView.selectToKeep(respSrc, content.publicNodes);
-      privateView.selectToKeep(respSrc, content.privateNodes);
-      cancelShuffleTimeout();
+      trigger(new CancelTimeout(pending.timeoutId), timer);
+      rto.sample(clock.now() - pending.sentAt);
+      backoffs.remove((Address) respSrc.getBaseAdr());
+      mergePublicRatio(content.publicRatio);
+      recordOutcome(pending.dest, true);
+
+      //overlays the partner did not answer for only drop the record of what was sent
+      int added = 0;
+      int received = 0;
+      for (Integer overlayId : pending.overlayIds) {
+        CroupierShuffle.Descriptors sets = content.overlays.get(overlayId);
+        added += selectToKeep(overlays.get(overlayId), content.getId(), respSrc, sets);
+        if (sets != null) {
+          received += sets.publicNodes.size() + sets.privateNodes.size();
+        }
+      }
+      recordChurn(added, received);
     }
   };
 
   Handler<ShuffleTimeout> handleShuffleTimeout = new Handler<ShuffleTimeout>() {
     @Override
     public void handle(ShuffleTimeout timeout) {
-      log.info("{} node:{} timed out", logPrefix, timeout.dest);
-
-      shuffleTimeoutId = null;
-      if (timeout.dest.isOpen()) {
-        publicView.timedOut(timeout.dest);
-      } else {
-        privateView.timedOut(timeout.dest);
+      PendingShuffle pending = pendingShuffles.remove(timeout.shuffleId);
+      if (pending == null) {
+        return;
+      }
+      // forget partners that have not failed again for a full maximum backoff
+      Iterator<Backoff> it = backoffs.values().iterator();
+      while (it.hasNext()) {
+        if (it.next().untilCycle + (1L << MAX_BACKOFF_EXPONENT) < shuffleCycles) {
+          it.remove();
+        }
+      }
+      Backoff backoff = backoffs.get((Address) timeout.dest.getBaseAdr());
+      if (backoff == null) {
+        backoff = new Backoff();
+        backoffs.put((Address) timeout.dest.getBaseAdr(), backoff);
+      }
+      backoff.failures++;
+      backoff.untilCycle = shuffleCycles + (1L << Math.min(backoff.failures - 1, MAX_BACKOFF_EXPONENT));
+      log.info("{} node:{} timed out, backing off for {} cycles", new Object[]{logPrefix, timeout.dest,
+        backoff.untilCycle - shuffleCycles});
+
+      rto.timedOut();
+      recordChurn(1, 1);
+      recordOutcome(timeout.dest, false);
+      // the partner sits in one of the views of an overlay only, but both hold a record of the shuffle
+      for (Integer overlayId : pending.overlayIds) {
+        Overlay overlay = overlays.get(overlayId);
+        overlay.publicView.timedOut(timeout.shuffleId, timeout.dest);
+        overlay.privateView.timedOut(timeout.shuffleId, timeout.dest);
       }
     }
   };
 
+  /**
+   * Publishes the changes since the last cycle as a delta, and a full sample when the views changed since the
+   * previous one and the sample interval has passed. Both carry immutable sets shared by all subscribers.
+   */
+  private void publishSample(Overlay overlay) {
+    CroupierView publicView = overlay.publicView;
+    CroupierView privateView = overlay.privateView;
+    if (publicView.hasChanges() || privateView.hasChanges()) {
+      CroupierSampleDelta delta = new CroupierSampleDelta(overlay.overlayId, publicView.drainAdded(),
+        publicView.drainRemoved(), privateView.drainAdded(), privateView.drainRemoved());
+      log.debug("{} publishing delta public +{} -{} private +{} -{}", new Object[]{logPrefix,
+        delta.publicAdded.size(), delta.publicRemoved.size(), delta.privateAdded.size(), delta.privateRemoved.size()});
+      trigger(delta, croupierPort);
+    }
+    // both versions only grow, so their sum changes whenever either view changes
+    long version = publicView.getVersion() + privateView.getVersion();
+    long now = clock.now();
+    if (version == overlay.sampleVersion || now - overlay.sampleTime < croupierConfig.sampleInterval
+      || (publicView.isEmpty() && privateView.isEmpty())) {
+      return;
+    }
+    overlay.sampleVersion = version;
+    overlay.sampleTime = now;
+    CroupierSample cs = new CroupierSample(overlay.overlayId, publicView.snapshot(), privateView.snapshot());
+    log.debug("{} publishing sample of overlay:{} - public nodes:{} private nodes:{}", new Object[]{logPrefix,
+      overlay.overlayId, cs.publicSample.size(), cs.privateSample.size()});
+    log.trace("{} sample \n public nodes:{} \n private nodes:{}", new Object[]{logPrefix, cs.publicSample,
+      cs.privateSample});
+    recordStaleness(cs);
+    trigger(cs, croupierPort);
+  }
+
+  /**
+   * Success rate of shuffles, kept apart for open and nated partners since the latter are reached through relays.
+   */
+  private void recordOutcome(NatedAddress partner, boolean answered) {
+    int kind = partner.isOpen() ? 0 : 1;
+    if (answered) {
+      shufflesAnswered[kind]++;
+    } else {
+      shufflesTimedOut[kind]++;
+    }
+    log.debug("{} shuffle success rate - open:{} ({}/{}) nated:{} ({}/{})", new Object[]{logPrefix,
+      successRate(0), shufflesAnswered[0], shufflesAnswered[0] + shufflesTimedOut[0],
+      successRate(1), shufflesAnswered[1], shufflesAnswered[1] + shufflesTimedOut[1]});
+  }
+
+  private double successRate(int kind) {
+    long total = shufflesAnswered[kind] + shufflesTimedOut[kind];
+    return total == 0 ? 1 : (double) shufflesAnswered[kind] / total;
+  }
+
+  /**
+   * Tracks the ages of the descriptors handed out in samples, the mean and max of this sample and the mean over
+   * all samples so far, next to the number of descriptors evicted for exceeding the max age.
+   */
+  private void recordStaleness(CroupierSample<?> cs) {
+    int sampleSize = cs.publicSample.size() + cs.privateSample.size();
+    long ageSum = 0;
+    int maxAge = 0;
+    for (Object descriptor : cs.publicSample) {
+      int age = ((Ageing) descriptor).getAge();
+      ageSum += age;
+      maxAge = Math.max(maxAge, age);
+    }
+    for (Object descriptor : cs.privateSample) {
+      int age = ((Ageing) descriptor).getAge();
+      ageSum += age;
+      maxAge = Math.max(maxAge, age);
+    }
+    publishedSamples++;
+    publishedDescriptors += sampleSize;
+    publishedAgeSum += ageSum;
+    long evicted = 0;
+    for (Overlay overlay : overlayList) {
+      evicted += overlay.publicView.getEvicted() + overlay.privateView.getEvicted();
+    }
+    log.debug("{} sample staleness - size:{} mean age:{} max age:{} | samples:{} overall mean age:{} evicted:{}",
+      new Object[]{logPrefix, sampleSize, sampleSize == 0 ? 0 : (double) ageSum / sampleSize, maxAge,
+        publishedSamples, publishedDescriptors == 0 ? 0 : (double) publishedAgeSum / publishedDescriptors,
+        evicted});
+  }
+
   private void schedulePeriodicShuffle() {
     if (shuffleCycleId != null) {
       log.warn("{} double starting periodic shuffle", logPrefix);
       return;
     }
     SchedulePeriodicTimeout spt
-      = new SchedulePeriodicTimeout(croupierConfig.shufflePeriod, croupierConfig.shufflePeriod);
+      = new SchedulePeriodicTimeout(shufflePeriod, shufflePeriod);
     ShuffleCycle sc = new ShuffleCycle(spt);
     spt.setTimeoutEvent(sc);
     shuffleCycleId = sc.getTimeoutId();
@@ -389,25 +792,116 @@ ClassMatchedHandler handleShuffleRequest
     trigger(cpt, timer);
   }
 
-  private void scheduleShuffleTimeout(NatedAddress dest) {
-    if (shuffleTimeoutId != null) {
-      log.warn("{} double starting shuffle timeout", logPrefix);
-      return;
-    }
-    ScheduleTimeout spt = new ScheduleTimeout(croupierConfig.shufflePeriod / 2);
-    ShuffleTimeout sc = new ShuffleTimeout(spt, dest);
+  private void scheduleShuffleTimeout(UUID shuffleId, NatedAddress dest, Set<Integer> overlayIds) {
+    ScheduleTimeout spt = new ScheduleTimeout(rto.rto());
+    ShuffleTimeout sc = new ShuffleTimeout(spt, shuffleId, dest);
     spt.setTimeoutEvent(sc);
-    shuffleTimeoutId = sc.getTimeoutId();
+    pendingShuffles.put(shuffleId, new PendingShuffle(dest, new HashSet<Integer>(overlayIds), sc.getTimeoutId(),
+      clock.now()));
     trigger(spt, timer);
   }
 
-  private void cancelShuffleTimeout() {
-    if (shuffleTimeoutId == null) {
-      log.warn("{} double stopping shuffle timeout", logPrefix);
+  private void recordChurn(int changed, int received) {
+    if (received > 0) {
+      churn += CHURN_GAIN * ((double) changed / received - churn);
+    }
+  }
+
+  /**
+   * Moves the shuffle period between its bounds, linearly in the observed churn: the lower bound at full churn
+   * and the upper bound with stable views. The periodic timer is only replaced when the period moved noticeably.
+   */
+  private void adaptShufflePeriod() {
+    long target = croupierConfig.maxShufflePeriod
+      - Math.round((croupierConfig.maxShufflePeriod - croupierConfig.minShufflePeriod) * churn);
+    if (Math.abs(target - shufflePeriod) <= PERIOD_SLACK * shufflePeriod) {
+      return;
+    }
+    log.debug("{} churn:{} - shuffle period {} -> {}", new Object[]{logPrefix, churn, shufflePeriod, target});
+    shufflePeriod = target;
+    cancelPeriodicShuffle();
+    schedulePeriodicShuffle();
+  }
+
+  /**
+   * A partner is skipped while it backs off from a timeout or while a shuffle with it is still outstanding.
+   */
+  private boolean canShuffleWith(NatedAddress peer) {
+    if (!peer.isOpen() && peer.getParents().isEmpty()) {
+      // a nated node can only be reached through one of its parents
+      return false;
+    }
+    Backoff backoff = backoffs.get((Address) peer.getBaseAdr());
+    if (backoff != null && backoff.untilCycle > shuffleCycles) {
+      return false;
+    }
+    for (PendingShuffle pending : pendingShuffles.values()) {
+      if (pending.dest.getBaseAdr().equals(peer.getBaseAdr())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * a descriptor of an outgoing shuffle that may be left out, with the set it sits in and the view it came from
+   */
+  private static class Droppable {
+
+    public final CroupierContainer descriptor;
+    public final Set<CroupierContainer> set;
+    public final CroupierView view;
+
+    public Droppable(CroupierContainer descriptor, Set<CroupierContainer> set, CroupierView view) {
+      this.descriptor = descriptor;
+      this.set = set;
+      this.view = view;
+    }
+  }
+
+  private static final Comparator<Droppable> OLDEST_FIRST = new Comparator<Droppable>() {
+    @Override
+    public int compare(Droppable o1, Droppable o2) {
+      return Integer.compare(o2.descriptor.getAge(), o1.descriptor.getAge());
+    }
+  };
+
+  private static class PendingShuffle {
+
+    public final NatedAddress dest;
+    public final Set<Integer> overlayIds;
+    public final UUID timeoutId;
+    public final long sentAt;
+
+    public PendingShuffle(NatedAddress dest, Set<Integer> overlayIds, UUID timeoutId, long sentAt) {
+      this.dest = dest;
+      this.overlayIds = overlayIds;
+      this.timeoutId = timeoutId;
+      this.sentAt = sentAt;
+    }
+  }
+
+  private static class Backoff {
+
+    public int failures = 0;
+    public long untilCycle = 0;
+  }
+
+  private static class Overlay {
+
+    public final int overlayId;
+    public final CroupierView publicView;
+    public final CroupierView privateView;
+    public Object selfView = null;
+    //views version and time of the last full sample
+    public long sampleVersion = -1;
+    public long sampleTime = 0;
+
+    public Overlay(int overlayId, CroupierView publicView, CroupierView privateView) {
+      this.overlayId = overlayId;
+      this.publicView = publicView;
+      this.privateView = privateView;
     }
-    CancelTimeout cpt = new CancelTimeout(shuffleTimeoutId);
-    shuffleTimeoutId = null;
-    trigger(cpt, timer);
   }
 
   public static class CroupierInit extends Init<CroupierComp> {
@@ -416,15 +910,36 @@ ClassMatchedHandler handleShuffleRequest
     public final List<NatedAddress> bootstrapNodes;
     public final long seed;
     public final CroupierConfig croupierConfig;
-    public final int overlayId;
-
+    public final int exchangeId;
+    public final List<Integer> overlayIds;
+    public final Clock clock;
+
+    /**
+     * @param exchangeId overlay header id of the shared shuffle exchange, used by the OverlayFilter
+     * @param overlayIds overlays kept by this croupier
+     */
     public CroupierInit(NatedAddress self, List<NatedAddress> bootstrapNodes, long seed, CroupierConfig croupierConfig,
-      int overlayId) {
+      int exchangeId, List<Integer> overlayIds, Clock clock) {
+      if (overlayIds.isEmpty()) {
+        throw new IllegalArgumentException("croupier needs at least one overlay");
+      }
       this.self = self;
       this.bootstrapNodes = bootstrapNodes;
       this.seed = seed;
       this.croupierConfig = croupierConfig;
-      this.overlayId = overlayId;
+      this.exchangeId = exchangeId;
+      this.overlayIds = new ArrayList<Integer>(overlayIds);
+      this.clock = clock;
+    }
+
+    public CroupierInit(NatedAddress self, List<NatedAddress> bootstrapNodes, long seed, CroupierConfig croupierConfig,
+      int exchangeId, List<Integer> overlayIds) {
+      this(self, bootstrapNodes, seed, croupierConfig, exchangeId, overlayIds, Clock.SYSTEM);
+    }
+
+    public CroupierInit(NatedAddress self, List<NatedAddress> bootstrapNodes, long seed, CroupierConfig croupierConfig,
+      int overlayId) {
+      this(self, bootstrapNodes, seed, croupierConfig, overlayId, Collections.singletonList(overlayId));
     }
   }
 
@@ -442,10 +957,12 @@ ClassMatchedHandler handleShuffleRequest
 
   public class ShuffleTimeout extends Timeout {
 
+    public final UUID shuffleId;
     public final NatedAddress dest;
 
-    public ShuffleTimeout(ScheduleTimeout request, NatedAddress dest) {
+    public ShuffleTimeout(ScheduleTimeout request, UUID shuffleId, NatedAddress dest) {
       super(request);
+      this.shuffleId = shuffleId;
       this.dest = dest;
     }
 
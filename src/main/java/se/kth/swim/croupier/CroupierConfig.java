@@ -27,6 +27,14 @@ import org.slf4j.LoggerFactory;
 public class CroupierConfig {
 
     private final static Logger log = LoggerFactory.getLogger(CroupierComp.class);
+    /**
+     * ethernet MTU less IP and UDP headers and some room for the message header
+     */
+    public final static int DEFAULT_SHUFFLE_BYTES = 1400;
+    /**
+     * room for the fixed part of a shuffle and a self descriptor per overlay
+     */
+    public final static int MIN_SHUFFLE_BYTES = 128;
 
     public final CroupierSelectionPolicy policy;
     public final int viewSize;
@@ -34,13 +42,172 @@ public class CroupierConfig {
     public final long shufflePeriod;
     public final long shuffleTimeout;
     public final double softMaxTemperature;
+    /**
+     * descriptors older than this many ageing rounds are evicted from the views, 0 keeps them until they are
+     * replaced or time out
+     */
+    public final int maxDescriptorAge;
+    /**
+     * shuffles that may be outstanding at once, a new one is started every shuffle period while below this
+     */
+    public final int maxPendingShuffles;
+    /**
+     * bounds of the shuffle period, which starts at shufflePeriod and moves towards the lower bound while the
+     * views churn and towards the upper bound while they are stable
+     */
+    public final long minShufflePeriod;
+    public final long maxShufflePeriod;
+    /**
+     * minimum time in ms between two full samples, which are only published when the views changed. Deltas are
+     * published every shuffle cycle the views changed
+     */
+    public final long sampleInterval;
+    /**
+     * Cyclon mode - the shuffle partner is taken out of the view when the shuffle starts and replaced by the
+     * fresh descriptor it answers with, turning shuffles into a batched random walk
+     */
+    public final boolean cyclonSwap;
+    /**
+     * bytes a shuffle request or response may take in its compact encoding, descriptors are left out of the
+     * shuffle until it fits
+     */
+    public final int shuffleByteBudget;
 
     public CroupierConfig(int viewSize, int shuffleSize, long shufflePeriod, long shuffleTimeout) {
-        this.policy = CroupierSelectionPolicy.RANDOM;
-        this.viewSize = viewSize;
-        this.shuffleSize = shuffleSize;
-        this.shufflePeriod = shufflePeriod;
-        this.shuffleTimeout = shuffleTimeout;
-        this.softMaxTemperature = 0;
+        this(new Builder(viewSize, shuffleSize, shufflePeriod, shuffleTimeout));
+    }
+
+    private CroupierConfig(Builder builder) {
+        if (builder.policy == null) {
+            throw new IllegalArgumentException("croupier selection policy is required");
+        }
+        if (builder.shuffleTimeout <= 0) {
+            throw new IllegalArgumentException("shuffle timeout must be positive");
+        }
+        if (builder.maxDescriptorAge < 0) {
+            throw new IllegalArgumentException("max descriptor age must not be negative");
+        }
+        if (builder.maxPendingShuffles < 1) {
+            throw new IllegalArgumentException("at least one pending shuffle is required");
+        }
+        long minPeriod = builder.minShufflePeriod == 0 ? builder.shufflePeriod : builder.minShufflePeriod;
+        long maxPeriod = builder.maxShufflePeriod == 0 ? builder.shufflePeriod : builder.maxShufflePeriod;
+        if (minPeriod <= 0 || minPeriod > builder.shufflePeriod || builder.shufflePeriod > maxPeriod) {
+            throw new IllegalArgumentException("shuffle period bounds must satisfy 0 < min <= period <= max");
+        }
+        if (builder.shuffleByteBudget < MIN_SHUFFLE_BYTES) {
+            throw new IllegalArgumentException("shuffle byte budget must be at least " + MIN_SHUFFLE_BYTES);
+        }
+        this.policy = builder.policy;
+        this.viewSize = builder.viewSize;
+        this.shuffleSize = builder.shuffleSize;
+        this.shufflePeriod = builder.shufflePeriod;
+        this.shuffleTimeout = builder.shuffleTimeout;
+        this.softMaxTemperature = builder.softMaxTemperature;
+        this.maxDescriptorAge = builder.maxDescriptorAge;
+        this.maxPendingShuffles = builder.maxPendingShuffles;
+        this.minShufflePeriod = minPeriod;
+        this.maxShufflePeriod = maxPeriod;
+        this.sampleInterval = builder.sampleInterval;
+        this.cyclonSwap = builder.cyclonSwap;
+        this.shuffleByteBudget = builder.shuffleByteBudget;
+    }
+
+    /**
+     * Starts from the view and shuffle sizes and timings; everything else keeps the plain random Croupier
+     * defaults unless set.
+     */
+    public static class Builder {
+
+        private final int viewSize;
+        private final int shuffleSize;
+        private final long shufflePeriod;
+        private final long shuffleTimeout;
+        private CroupierSelectionPolicy policy = CroupierSelectionPolicy.RANDOM;
+        private double softMaxTemperature = 0;
+        private int maxDescriptorAge = 0;
+        private int maxPendingShuffles = 1;
+        private long minShufflePeriod = 0;
+        private long maxShufflePeriod = 0;
+        private long sampleInterval = 0;
+        private boolean cyclonSwap = false;
+        private int shuffleByteBudget = DEFAULT_SHUFFLE_BYTES;
+
+        public Builder(int viewSize, int shuffleSize, long shufflePeriod, long shuffleTimeout) {
+            this.viewSize = viewSize;
+            this.shuffleSize = shuffleSize;
+            this.shufflePeriod = shufflePeriod;
+            this.shuffleTimeout = shuffleTimeout;
+        }
+
+        /**
+         * how the shuffle partner is picked
+         */
+        public Builder policy(CroupierSelectionPolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * with TAIL or HEALER, a temperature above 0 picks the partner by softmax over age ranks instead of
+         * always the oldest
+         */
+        public Builder softMaxTemperature(double softMaxTemperature) {
+            this.softMaxTemperature = softMaxTemperature;
+            return this;
+        }
+
+        /**
+         * age at which descriptors are evicted, 0 for no limit
+         */
+        public Builder maxDescriptorAge(int maxDescriptorAge) {
+            this.maxDescriptorAge = maxDescriptorAge;
+            return this;
+        }
+
+        /**
+         * shuffles in flight at once, at least 1
+         */
+        public Builder maxPendingShuffles(int maxPendingShuffles) {
+            this.maxPendingShuffles = maxPendingShuffles;
+            return this;
+        }
+
+        /**
+         * shortest shuffle period under churn and longest when stable, both default to the fixed shuffle period
+         */
+        public Builder shufflePeriodBounds(long minShufflePeriod, long maxShufflePeriod) {
+            this.minShufflePeriod = minShufflePeriod;
+            this.maxShufflePeriod = maxShufflePeriod;
+            return this;
+        }
+
+        /**
+         * minimum time between full samples, 0 for one every cycle the views changed
+         */
+        public Builder sampleInterval(long sampleInterval) {
+            this.sampleInterval = sampleInterval;
+            return this;
+        }
+
+        /**
+         * remove the shuffle partner from the view until it answers with a fresh descriptor
+         */
+        public Builder cyclonSwap(boolean cyclonSwap) {
+            this.cyclonSwap = cyclonSwap;
+            return this;
+        }
+
+        /**
+         * encoded size limit of a shuffle message, e.g. the datagram payload the MTU allows
+         */
+        public Builder shuffleByteBudget(int shuffleByteBudget) {
+            this.shuffleByteBudget = shuffleByteBudget;
+            return this;
+        }
+
+        public CroupierConfig build() {
+            return new CroupierConfig(this);
+        }
     }
 }
@@ -20,6 +20,7 @@
 package se.kth.swim.croupier;
 
 import se.kth.swim.croupier.msg.CroupierSample;
+import se.kth.swim.croupier.msg.CroupierSampleDelta;
 import se.kth.swim.croupier.msg.CroupierUpdate;
 import se.sics.kompics.PortType;
 
@@ -31,5 +32,6 @@ public class CroupierPort extends PortType {
         request(CroupierUpdate.View.class);
         request(CroupierUpdate.Address.class);
         indication(CroupierSample.class);
+        indication(CroupierSampleDelta.class);
     }
 }
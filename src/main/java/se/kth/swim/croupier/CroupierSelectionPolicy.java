@@ -23,11 +23,24 @@ package se.kth.swim.croupier;
  */
 public enum CroupierSelectionPolicy {
 
-    RANDOM;
+    /**
+     * shuffle with a uniformly random peer
+     */
+    RANDOM,
+    /**
+     * shuffle with the oldest peer, or softmax by age with a temperature
+     */
+    TAIL,
+    /**
+     * as TAIL, and a full view gives up its oldest descriptors first for fresher ones
+     */
+    HEALER;
 
     public static CroupierSelectionPolicy create(String policy) {
-        if (policy.compareToIgnoreCase(CroupierSelectionPolicy.RANDOM.name()) == 0) {
-            return RANDOM;
+        for (CroupierSelectionPolicy p : values()) {
+            if (policy.compareToIgnoreCase(p.name()) == 0) {
+                return p;
+            }
         }
         return null;
     }
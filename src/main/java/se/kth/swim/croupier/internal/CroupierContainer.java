@@ -28,7 +28,7 @@ import se.kth.swim.nat.NatedAddress;
  */
 public class CroupierContainer<C extends Object> implements Container<NatedAddress, C>, Ageing {
 
-    private int age;
+    private final int age;
     private NatedAddress src;
     private final C content;
 
@@ -57,10 +57,6 @@ public class CroupierContainer<C extends Object> implements Container<NatedAddre
         return content;
     }
 
-    public void incrementAge() {
-        age++;
-    }
-
     /**
      * shallow copy - only age is not shared
      */
@@ -18,28 +18,74 @@
  */
 package se.kth.swim.croupier.internal;
 
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import se.kth.swim.util.UUIDIdentifiable;
 
 /**
+ * One shuffle exchange carries the descriptors of every overlay the two
+ * partners share, keyed by overlay id.
+ *
  * @author Alex Ormenisan <aaor@sics.se>
  */
 public class CroupierShuffle {
 
-    public static abstract class Basic implements UUIDIdentifiable {
+    public static class Descriptors {
 
-        protected final UUID id;
         public final Set<CroupierContainer> publicNodes;
         public final Set<CroupierContainer> privateNodes;
 
-        Basic(UUID id, Set<CroupierContainer> publicNodes, Set<CroupierContainer> privateNodes) {
-            this.id = id;
+        public Descriptors(Set<CroupierContainer> publicNodes, Set<CroupierContainer> privateNodes) {
             this.publicNodes = publicNodes;
             this.privateNodes = privateNodes;
-            if(publicNodes.size() > 128 || privateNodes.size() > 128) {
-                throw new RuntimeException("Croupier shuffle message is too large - limit yourself to 128 public nodes and 128 private nodes per shuffle");
+        }
+
+        @Override
+        public String toString() {
+            return "public:" + publicNodes + " private:" + privateNodes;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + (this.publicNodes != null ? this.publicNodes.hashCode() : 0);
+            hash = 31 * hash + (this.privateNodes != null ? this.privateNodes.hashCode() : 0);
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final Descriptors other = (Descriptors) obj;
+            if (this.publicNodes != other.publicNodes && (this.publicNodes == null || !this.publicNodes.equals(other.publicNodes))) {
+                return false;
             }
+            if (this.privateNodes != other.privateNodes && (this.privateNodes == null || !this.privateNodes.equals(other.privateNodes))) {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    public static abstract class Basic implements UUIDIdentifiable {
+
+        protected final UUID id;
+        public final Map<Integer, Descriptors> overlays;
+        /**
+         * sender's estimate of the fraction of public nodes, averaged by both sides of the shuffle
+         */
+        public final double publicRatio;
+
+        Basic(UUID id, Map<Integer, Descriptors> overlays, double publicRatio) {
+            this.id = id;
+            this.overlays = overlays;
+            this.publicRatio = publicRatio;
         }
         
         @Override
@@ -49,8 +95,8 @@ public class CroupierShuffle {
     }
     
     public static class Request extends Basic {
-        public Request(UUID id, Set<CroupierContainer> publicNodes, Set<CroupierContainer> privateNodes) {
-            super(id, publicNodes, privateNodes);
+        public Request(UUID id, Map<Integer, Descriptors> overlays, double publicRatio) {
+            super(id, overlays, publicRatio);
         }
         
         @Override
@@ -62,8 +108,7 @@ public class CroupierShuffle {
         public int hashCode() {
             int hash = 7;
             hash = 31 * hash + (this.id != null ? this.id.hashCode() : 0);
-            hash = 31 * hash + (this.publicNodes != null ? this.publicNodes.hashCode() : 0);
-            hash = 31 * hash + (this.privateNodes != null ? this.privateNodes.hashCode() : 0);
+            hash = 31 * hash + (this.overlays != null ? this.overlays.hashCode() : 0);
             return hash;
         }
 
@@ -79,10 +124,7 @@ public class CroupierShuffle {
             if (this.id != other.id && (this.id == null || !this.id.equals(other.id))) {
                 return false;
             }
-            if (this.publicNodes != other.publicNodes && (this.publicNodes == null || !this.publicNodes.equals(other.publicNodes))) {
-                return false;
-            }
-            if (this.privateNodes != other.privateNodes && (this.privateNodes == null || !this.privateNodes.equals(other.privateNodes))) {
+            if (this.overlays != other.overlays && (this.overlays == null || !this.overlays.equals(other.overlays))) {
                 return false;
             }
             return true;
@@ -90,8 +132,8 @@ public class CroupierShuffle {
     }
     
     public static class Response extends Basic {
-        public Response(UUID id, Set<CroupierContainer> publicNodes, Set<CroupierContainer> privateNodes) {
-            super(id, publicNodes, privateNodes);
+        public Response(UUID id, Map<Integer, Descriptors> overlays, double publicRatio) {
+            super(id, overlays, publicRatio);
         }
         
         @Override
@@ -103,8 +145,7 @@ public class CroupierShuffle {
         public int hashCode() {
             int hash = 7;
             hash = 31 * hash + (this.id != null ? this.id.hashCode() : 0);
-            hash = 31 * hash + (this.publicNodes != null ? this.publicNodes.hashCode() : 0);
-            hash = 31 * hash + (this.privateNodes != null ? this.privateNodes.hashCode() : 0);
+            hash = 31 * hash + (this.overlays != null ? this.overlays.hashCode() : 0);
             return hash;
         }
 
@@ -120,10 +161,7 @@ public class CroupierShuffle {
             if (this.id != other.id && (this.id == null || !this.id.equals(other.id))) {
                 return false;
             }
-            if (this.publicNodes != other.publicNodes && (this.publicNodes == null || !this.publicNodes.equals(other.publicNodes))) {
-                return false;
-            }
-            if (this.privateNodes != other.privateNodes && (this.privateNodes == null || !this.privateNodes.equals(other.privateNodes))) {
+            if (this.overlays != other.overlays && (this.overlays == null || !this.overlays.equals(other.overlays))) {
                 return false;
             }
             return true;
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.croupier.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import se.kth.swim.nat.NatType;
+import se.kth.swim.nat.NatedAddress;
+import se.kth.swim.network.impl.BasicAddress;
+import se.kth.swim.network.impl.BasicNatedAddress;
+
+/**
+ * Compact binary form of shuffle messages. Croupier uses it to measure a
+ * shuffle against its byte budget; messages still travel as objects since the
+ * network stack has no serializer hook to plug it into, so the budget is the
+ * size the shuffle would take with a transport that does. Descriptors are
+ * written sorted by id so that ids and ports are small deltas and a repeated ip
+ * costs a single flag bit. The parents of nated descriptors are written once in
+ * a table shared by the whole message and referenced by index. Ages, counts,
+ * deltas and indexes are varints.
+ *
+ * <pre>
+ * message    := type(1) id(16) publicRatio(2) parents overlays
+ * parents    := n address*
+ * overlays   := n (overlayId set set)*
+ * set        := n descriptor*
+ * descriptor := address age content
+ * address    := flags(1) idDelta [ipLength ip] portDelta [n parentIndex*]
+ * </pre>
+ *
+ * The content of descriptors is opaque to croupier and written by a
+ * ContentCodec, by default it is left out.
+ *
+ * @author Alex Ormenisan <aaor@sics.se>
+ */
+public class CroupierShuffleCodec {
+
+    private static final byte REQUEST = 1;
+    private static final byte RESPONSE = 2;
+    private static final int SAME_IP = 1;
+    private static final int NATED = 2;
+    private static final int RATIO_SCALE = 0xFFFF;
+
+    public interface ContentCodec {
+
+        public void encode(Object content, ByteArrayOutputStream out);
+
+        public Object decode(ByteBuffer in);
+    }
+
+    public static final ContentCodec NO_CONTENT = new ContentCodec() {
+
+        @Override
+        public void encode(Object content, ByteArrayOutputStream out) {
+        }
+
+        @Override
+        public Object decode(ByteBuffer in) {
+            return null;
+        }
+    };
+
+    private static final Comparator<CroupierContainer> BY_ID = new Comparator<CroupierContainer>() {
+        @Override
+        public int compare(CroupierContainer o1, CroupierContainer o2) {
+            return o1.getSource().getId().compareTo(o2.getSource().getId());
+        }
+    };
+
+    private final ContentCodec contentCodec;
+
+    public CroupierShuffleCodec(ContentCodec contentCodec) {
+        this.contentCodec = contentCodec;
+    }
+
+    public CroupierShuffleCodec() {
+        this(NO_CONTENT);
+    }
+
+    public byte[] encode(CroupierShuffle.Basic shuffle) {
+        return encode(shuffle, null);
+    }
+
+    public int encodedSize(CroupierShuffle.Basic shuffle) {
+        return encode(shuffle, null).length;
+    }
+
+    /**
+     * @param descriptorSizes filled with the bytes each descriptor takes in the encoding, leaving one out saves
+     * about that much, give or take a byte of the delta coding of the descriptor after it
+     */
+    public int encodedSize(CroupierShuffle.Basic shuffle, Map<CroupierContainer, Integer> descriptorSizes) {
+        return encode(shuffle, descriptorSizes).length;
+    }
+
+    private byte[] encode(CroupierShuffle.Basic shuffle, Map<CroupierContainer, Integer> descriptorSizes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        out.write(shuffle instanceof CroupierShuffle.Request ? REQUEST : RESPONSE);
+        UUID id = shuffle.getId();
+        writeLong(out, id.getMostSignificantBits());
+        writeLong(out, id.getLeastSignificantBits());
+        int ratio = (int) Math.round(Math.max(0, Math.min(1, shuffle.publicRatio)) * RATIO_SCALE);
+        out.write(ratio >>> 8);
+        out.write(ratio);
+
+        Map<NatedAddress, Integer> parentIndex = new LinkedHashMap<NatedAddress, Integer>();
+        for (CroupierShuffle.Descriptors sets : shuffle.overlays.values()) {
+            collectParents(sets.publicNodes, parentIndex);
+            collectParents(sets.privateNodes, parentIndex);
+        }
+        writeVarint(out, parentIndex.size());
+        AddressState state = new AddressState();
+        for (NatedAddress parent : parentIndex.keySet()) {
+            writeAddress(out, parent, null, state);
+        }
+
+        writeVarint(out, shuffle.overlays.size());
+        for (Map.Entry<Integer, CroupierShuffle.Descriptors> overlay : shuffle.overlays.entrySet()) {
+            writeVarint(out, zigzag(overlay.getKey()));
+            writeSet(out, overlay.getValue().publicNodes, parentIndex, descriptorSizes);
+            writeSet(out, overlay.getValue().privateNodes, parentIndex, descriptorSizes);
+        }
+        return out.toByteArray();
+    }
+
+    public CroupierShuffle.Basic decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        byte type = in.get();
+        UUID id = new UUID(in.getLong(), in.getLong());
+        double publicRatio = (double) (in.getShort() & 0xFFFF) / RATIO_SCALE;
+
+        int nrParents = readVarint(in);
+        List<NatedAddress> parents = new ArrayList<NatedAddress>(nrParents);
+        AddressState state = new AddressState();
+        for (int i = 0; i < nrParents; i++) {
+            parents.add(readAddress(in, state, null));
+        }
+
+        int nrOverlays = readVarint(in);
+        Map<Integer, CroupierShuffle.Descriptors> overlays = new HashMap<Integer, CroupierShuffle.Descriptors>();
+        for (int i = 0; i < nrOverlays; i++) {
+            int overlayId = unzigzag(readVarint(in));
+            Set<CroupierContainer> publicNodes = readSet(in, parents);
+            Set<CroupierContainer> privateNodes = readSet(in, parents);
+            overlays.put(overlayId, new CroupierShuffle.Descriptors(publicNodes, privateNodes));
+        }
+        if (type == REQUEST) {
+            return new CroupierShuffle.Request(id, overlays, publicRatio);
+        } else if (type == RESPONSE) {
+            return new CroupierShuffle.Response(id, overlays, publicRatio);
+        }
+        throw new IllegalArgumentException("unknown croupier shuffle type:" + type);
+    }
+
+    private void collectParents(Set<CroupierContainer> descriptors, Map<NatedAddress, Integer> parentIndex) {
+        for (CroupierContainer descriptor : descriptors) {
+            NatedAddress src = descriptor.getSource();
+            if (src.isOpen()) {
+                continue;
+            }
+            for (NatedAddress parent : src.getParents()) {
+                if (!parentIndex.containsKey(parent)) {
+                    parentIndex.put(parent, parentIndex.size());
+                }
+            }
+        }
+    }
+
+    private void writeSet(ByteArrayOutputStream out, Set<CroupierContainer> descriptors,
+            Map<NatedAddress, Integer> parentIndex, Map<CroupierContainer, Integer> descriptorSizes) {
+        List<CroupierContainer> sorted = new ArrayList<CroupierContainer>(descriptors);
+        Collections.sort(sorted, BY_ID);
+        writeVarint(out, sorted.size());
+        AddressState state = new AddressState();
+        for (CroupierContainer descriptor : sorted) {
+            int start = out.size();
+            writeAddress(out, descriptor.getSource(), parentIndex, state);
+            writeVarint(out, descriptor.getAge());
+            contentCodec.encode(descriptor.getContent(), out);
+            if (descriptorSizes != null) {
+                descriptorSizes.put(descriptor, out.size() - start);
+            }
+        }
+    }
+
+    private Set<CroupierContainer> readSet(ByteBuffer in, List<NatedAddress> parents) {
+        int size = readVarint(in);
+        Set<CroupierContainer> descriptors = new HashSet<CroupierContainer>();
+        AddressState state = new AddressState();
+        for (int i = 0; i < size; i++) {
+            NatedAddress src = readAddress(in, state, parents);
+            int age = readVarint(in);
+            descriptors.add(new CroupierContainer(src, contentCodec.decode(in), age));
+        }
+        return descriptors;
+    }
+
+    /**
+     * running values addresses are delta coded against
+     */
+    private static class AddressState {
+
+        int id = 0;
+        int port = 0;
+        byte[] ip = null;
+    }
+
+    /**
+     * @param parentIndex parent table, null while writing the table itself
+     */
+    private void writeAddress(ByteArrayOutputStream out, NatedAddress adr, Map<NatedAddress, Integer> parentIndex,
+            AddressState state) {
+        boolean nated = parentIndex != null && !adr.isOpen();
+        byte[] ip = adr.getIp().getAddress();
+        boolean sameIp = Arrays.equals(ip, state.ip);
+        out.write((sameIp ? SAME_IP : 0) | (nated ? NATED : 0));
+        writeVarint(out, zigzag(adr.getId() - state.id));
+        if (!sameIp) {
+            out.write(ip.length);
+            out.write(ip, 0, ip.length);
+        }
+        writeVarint(out, zigzag(adr.getPort() - state.port));
+        state.id = adr.getId();
+        state.port = adr.getPort();
+        state.ip = ip;
+        if (nated) {
+            writeVarint(out, adr.getParents().size());
+            for (NatedAddress parent : adr.getParents()) {
+                writeVarint(out, parentIndex.get(parent));
+            }
+        }
+    }
+
+    /**
+     * @param parents parent table, null while reading the table itself
+     */
+    private NatedAddress readAddress(ByteBuffer in, AddressState state, List<NatedAddress> parents) {
+        int flags = in.get();
+        int id = state.id + unzigzag(readVarint(in));
+        byte[] ip = state.ip;
+        if ((flags & SAME_IP) == 0) {
+            ip = new byte[in.get()];
+            in.get(ip);
+        }
+        int port = state.port + unzigzag(readVarint(in));
+        state.id = id;
+        state.port = port;
+        state.ip = ip;
+
+        BasicAddress base;
+        try {
+            base = new BasicAddress(InetAddress.getByAddress(ip), port, id);
+        } catch (UnknownHostException ex) {
+            throw new IllegalArgumentException("malformed croupier shuffle address", ex);
+        }
+        if ((flags & NATED) == 0) {
+            return new BasicNatedAddress(base);
+        }
+        int nrParents = readVarint(in);
+        List<NatedAddress> natParents = new LinkedList<NatedAddress>();
+        for (int i = 0; i < nrParents; i++) {
+            natParents.add(parents.get(readVarint(in)));
+        }
+        return new BasicNatedAddress(base, NatType.NAT, natParents);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint in croupier shuffle");
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+}
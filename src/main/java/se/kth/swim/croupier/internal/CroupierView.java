@@ -20,252 +20,543 @@
  */
 package se.kth.swim.croupier.internal;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
 import se.kth.swim.croupier.CroupierSelectionPolicy;
+import se.kth.swim.croupier.util.Ageing;
+import se.kth.swim.croupier.util.Container;
 import se.kth.swim.nat.NatedAddress;
 import se.sics.kompics.network.Address;
 
 /**
+ * Entries are kept densely in an array, in no particular order, and indexed by address through d2e. Every
+ * entry knows its own slot, so removal moves the last entry into the hole and random samples are drawn by a
+ * partial Fisher-Yates shuffle of the front of the array, without copying the view.
+ *
  * @author Alex Ormenisan <aaor@sics.se>
  */
 public class CroupierView<C extends Object> {
 
-    private final int viewSize;
+    private int viewSize;
+    private final int maxAge;
     private final Address selfAddress;
     private final HashMap<Address, CroupierViewEntry<C>> d2e;
+    private CroupierViewEntry<C>[] entries;
+    private int size;
+    /**
+     * the same entries ordered by age - ages all move together with the epoch, so the order of an entry
+     * never changes while it is in the view
+     */
+    private final TreeSet<CroupierViewEntry<C>> byAge;
+    private long nextSeq;
+    private long evicted;
+    /**
+     * bumped on every change of membership
+     */
+    private long version;
+    /**
+     * changes since the last delta was drained - a descriptor refreshed in place is both removed and added
+     */
+    private final HashMap<Address, CroupierViewEntry<C>> addedSinceDrain;
+    private final HashMap<Address, NatedAddress> removedSinceDrain;
+    private Set<Container<NatedAddress, C>> snapshot;
+    private long snapshotVersion = -1;
+    /**
+     * logical clock of the view - ageing all descriptors is one increment
+     */
+    private int epoch;
+    /**
+     * entries sent in each outstanding shuffle, in the order they are given up for the entries received back
+     */
+    private final HashMap<UUID, ArrayDeque<CroupierViewEntry<C>>> sentInShuffle;
+    /**
+     * partner entries taken out of the view when a shuffle was started with them, Cyclon style
+     */
+    private final HashMap<UUID, CroupierViewEntry<C>> detachedPartners;
     private final Random rand;
 
-    private Comparator<CroupierViewEntry> comparatorByAge = new Comparator<CroupierViewEntry>() {
+    /**
+     * oldest entry first, entries of the same age in the order they were added
+     */
+    private Comparator<CroupierViewEntry<C>> oldestFirst = new Comparator<CroupierViewEntry<C>>() {
         @Override
-        public int compare(CroupierViewEntry o1, CroupierViewEntry o2) {
-            if (o1.getDescriptor().getAge() > o2.getDescriptor().getAge()) {
-                return 1;
-            } else if (o1.getDescriptor().getAge() < o2.getDescriptor().getAge()) {
-                return -1;
-            } else {
-                return 0;
-            }
+        public int compare(CroupierViewEntry<C> o1, CroupierViewEntry<C> o2) {
+            int byAge = CroupierViewEntry.Order.ByAge.compare(o2, o1);
+            return byAge != 0 ? byAge : Long.compare(o1.seq, o2.seq);
         }
     };
 
-    public CroupierView(Address selfAddress, int viewSize, Random rand) {
+    /**
+     * @param maxAge age above which descriptors are evicted and not accepted, 0 for no limit
+     */
+    public CroupierView(Address selfAddress, int viewSize, int maxAge, Random rand) {
         super();
         this.selfAddress = selfAddress;
         this.viewSize = viewSize;
+        this.maxAge = maxAge;
         this.d2e = new HashMap<Address, CroupierViewEntry<C>>();
+        this.entries = newEntries(Math.max(1, viewSize));
+        this.size = 0;
+        this.byAge = new TreeSet<CroupierViewEntry<C>>(oldestFirst);
+        this.sentInShuffle = new HashMap<UUID, ArrayDeque<CroupierViewEntry<C>>>();
+        this.detachedPartners = new HashMap<UUID, CroupierViewEntry<C>>();
+        this.addedSinceDrain = new HashMap<Address, CroupierViewEntry<C>>();
+        this.removedSinceDrain = new HashMap<Address, NatedAddress>();
         this.rand = rand;
     }
 
+    @SuppressWarnings("unchecked")
+    private static <C> CroupierViewEntry<C>[] newEntries(int capacity) {
+        return (CroupierViewEntry<C>[]) new CroupierViewEntry[capacity];
+    }
+
     public void incrementDescriptorAges() {
-        for (CroupierViewEntry entry : d2e.values()) {
-            entry.getDescriptor().incrementAge();
+        epoch++;
+        if (maxAge > 0) {
+            while (size > 0 && byAge.first().getAge(epoch) > maxAge) {
+                removeEntry((Address)byAge.first().getDescriptor().getSource().getBaseAdr());
+                evicted++;
+            }
+        }
+    }
+
+    public int getViewSize() {
+        return viewSize;
+    }
+
+    /**
+     * Changes the capacity of the view, giving up the oldest descriptors if it shrinks below the current size.
+     */
+    public void setViewSize(int viewSize) {
+        if (viewSize < 1) {
+            throw new IllegalArgumentException("view size must be positive");
+        }
+        this.viewSize = viewSize;
+        while (size > viewSize) {
+            removeEntry((Address)byAge.first().getDescriptor().getSource().getBaseAdr());
         }
     }
 
+    /**
+     * number of descriptors evicted for exceeding the max age so far
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * @param busy base addresses of peers that may not be picked, e.g. because
+     * a shuffle with them is still pending
+     * @return the partner, or null when every peer in the view is busy
+     */
     public NatedAddress selectPeerToShuffleWith(CroupierSelectionPolicy policy,
-            boolean softmax, double temperature) {
-        if (d2e.isEmpty()) {
+            boolean softmax, double temperature, Set<Address> busy) {
+        if (size == 0) {
+            return null;
+        }
+
+        CroupierViewEntry<C> selectedEntry;
+        if (policy == CroupierSelectionPolicy.RANDOM) {
+            selectedEntry = busy.isEmpty() ? entries[rand.nextInt(size)] : randomFree(busy);
+        } else if (policy == CroupierSelectionPolicy.TAIL || policy == CroupierSelectionPolicy.HEALER) {
+            selectedEntry = nthOldest(softmax && temperature > 0 ? softMaxRank(temperature) : 0, busy);
+        } else {
+            throw new IllegalArgumentException("Invalid Croupier policy selected:" + policy);
+        }
+        if (selectedEntry == null) {
             return null;
         }
 
-        CroupierViewEntry selectedEntry = null;
-
-        selectedEntry = generateRandomSample(1).get(0);
-//        if (!softmax || policy == CroupierSelectionPolicy.RANDOM) {
-//            if (policy == CroupierSelectionPolicy.TAIL) {
-//                selectedEntry = Collections.max(d2e.values(), comparatorByAge);
-//            } else if (policy == CroupierSelectionPolicy.HEALER) {
-//                selectedEntry = Collections.max(d2e.values(), comparatorByAge);
-//            } else if (policy == CroupierSelectionPolicy.RANDOM) {
-//                selectedEntry = generateRandomSample(1).get(0);
-//            } else {
-//                throw new IllegalArgumentException("Invalid Croupier policy selected:" + policy);
-//            }
-//
-//        } else {
-//            ArrayList<CroupierViewEntry> entries = new ArrayList<CroupierViewEntry>(d2e.values());
-//            if (policy == CroupierSelectionPolicy.TAIL) {
-//                Collections.sort(entries, comparatorByAge);
-//            } else if (policy == CroupierSelectionPolicy.HEALER) {
-//                Collections.sort(entries, comparatorByAge);
-//            } else {
-//                throw new IllegalArgumentException("Invalid Croupier policy selected:" + policy);
-//            }
-//
-//            int index = softMaxIndex(entries, temperature);
-//            if (index == -1) {
-//                selectedEntry = entries.get(entries.size() - 1);
-//            } else {
-//                selectedEntry = entries.get(index);
-//            }
-//        }
-//
-//        // TODO - by not removing a reference to the node I am shuffling with, we
-//        // break the 'batched random walk' (Cyclon) behaviour. But it's more important
-//        // to keep the graph connected.
-//        if (d2e.size() >= viewSize) {
-//            removeEntry(selectedEntry.getDescriptor().getSource().getBase());
-//        }
+        // by not removing a reference to the node I am shuffling with, we break the
+        // 'batched random walk' (Cyclon) behaviour - see detachPartner for the mode that does
 
         return selectedEntry.getDescriptor().getSource();
     }
 
-    public Set<CroupierContainer<C>> initiatorCopySet(int count, NatedAddress destinationPeer) {
-        List<CroupierViewEntry> randomEntries = generateRandomSample(count);
-        Set<CroupierContainer<C>> descriptors = new HashSet<CroupierContainer<C>>();
-        for (CroupierViewEntry cacheEntry : randomEntries) {
-            cacheEntry.sentTo((Address)destinationPeer.getBaseAdr());
-            descriptors.add(cacheEntry.getDescriptor().getCopy());
-        }
-        return descriptors;
+    public Set<CroupierContainer<C>> initiatorCopySet(UUID shuffleId, int count) {
+        return copySet(shuffleId, count);
     }
 
-    public Set<CroupierContainer<C>> receiverCopySet(int count, NatedAddress destinationPeer) {
-        List<CroupierViewEntry> randomEntries = generateRandomSample(count);
+    public Set<CroupierContainer<C>> receiverCopySet(UUID shuffleId, int count) {
+        return copySet(shuffleId, count);
+    }
+
+    /**
+     * Copies a random sample of the view for a shuffle and remembers which entries went out in it, so the
+     * answer to the shuffle can replace them. The record is dropped by selectToKeep or timedOut.
+     */
+    private Set<CroupierContainer<C>> copySet(UUID shuffleId, int count) {
+        int sampleSize = sampleFront(count);
         Set<CroupierContainer<C>> descriptors = new HashSet<CroupierContainer<C>>();
-        for (CroupierViewEntry cacheEntry : randomEntries) {
-            cacheEntry.sentTo((Address)destinationPeer.getBaseAdr());
-            descriptors.add(cacheEntry.getDescriptor().getCopy());
+        ArrayDeque<CroupierViewEntry<C>> sent = new ArrayDeque<CroupierViewEntry<C>>(sampleSize + 1);
+        for (int i = 0; i < sampleSize; i++) {
+            CroupierViewEntry<C> cacheEntry = entries[i];
+            cacheEntry.sent(epoch);
+            sent.add(cacheEntry);
+            descriptors.add(cacheEntry.getCopy(epoch));
         }
+        sentInShuffle.put(shuffleId, sent);
         return descriptors;
     }
 
-    public void selectToKeep(NatedAddress from, Set<CroupierContainer<C>> descriptors) {
+    /**
+     * @return the number of peers new to the view, a measure of churn
+     */
+    public int selectToKeep(CroupierSelectionPolicy policy, UUID shuffleId, NatedAddress from,
+            Set<CroupierContainer<C>> descriptors) {
+        ArrayDeque<CroupierViewEntry<C>> entriesSentToThisPeer = sentInShuffle.remove(shuffleId);
         Address baseFrom = (Address)from.getBaseAdr();
         if (baseFrom.equals(selfAddress)) {
-            return;
+            return 0;
         }
 
-        LinkedList<CroupierViewEntry> entriesSentToThisPeer = new LinkedList<CroupierViewEntry>();
-        for (CroupierViewEntry cacheEntry : d2e.values()) {
-            if (cacheEntry.wasSentTo(baseFrom)) {
-                entriesSentToThisPeer.add(cacheEntry);
+        if (entriesSentToThisPeer == null) {
+            entriesSentToThisPeer = new ArrayDeque<CroupierViewEntry<C>>(1);
+        }
+        CroupierViewEntry<C> detached = detachedPartners.remove(shuffleId);
+        if (detached != null) {
+            // the slot freed by the partner goes to its fresh self descriptor, before any other
+            List<CroupierContainer<C>> ordered = new ArrayList<CroupierContainer<C>>(descriptors.size());
+            for (CroupierContainer<C> descriptor : descriptors) {
+                if (baseFrom.equals(descriptor.getSource().getBaseAdr())) {
+                    ordered.add(0, descriptor);
+                } else {
+                    ordered.add(descriptor);
+                }
             }
+            int added = keep(policy, baseFrom, entriesSentToThisPeer, ordered);
+            if (!d2e.containsKey(baseFrom) && size < viewSize) {
+                // no fresh descriptor came back, keep the old one rather than lose the link
+                addEntry(detached);
+            }
+            return added;
         }
+        return keep(policy, baseFrom, entriesSentToThisPeer, descriptors);
+    }
+
+    private int keep(CroupierSelectionPolicy policy, Address baseFrom,
+            ArrayDeque<CroupierViewEntry<C>> entriesSentToThisPeer, Collection<CroupierContainer<C>> descriptors) {
         //TODO Alex policy for removing the descriptor of the shuffle target - should it be the first i remove or last?
         if (d2e.containsKey(baseFrom)) {
             entriesSentToThisPeer.add(d2e.get(baseFrom));
         }
 
+        int added = 0;
         for (CroupierContainer<C> descriptor : descriptors) {
             Address baseSrc = (Address)descriptor.getSource().getBaseAdr();
             if (selfAddress.equals(baseSrc)) {
                 continue; // do not keep descriptor of self
             }
+            if (maxAge > 0 && descriptor.getAge() > maxAge) {
+                continue; // would be evicted at the next ageing anyway
+            }
             if (d2e.containsKey(baseSrc)) {
                 // we already have an entry for this peer. keep the youngest one
 
                 CroupierViewEntry entry = d2e.get(baseSrc);
-                if (entry.getDescriptor().getAge() > descriptor.getAge()) {
-                    // we keep the lowest age descriptor
-                    CroupierViewEntry newCVE = new CroupierViewEntry(descriptor);
-
-                    //TODO Alex what is the policy about descriptors I sent and received from src
-                    int index = entriesSentToThisPeer.indexOf(entry);
-                    if (index != -1) {
-                        entriesSentToThisPeer.set(index, newCVE);
-                    }
-
+                if (entry.getAge(epoch) > descriptor.getAge()) {
+                    // we keep the lowest age descriptor. The replaced entry drops out of the sent
+                    // entries as well, the fresher descriptor is not a candidate for replacement
                     removeEntry(baseSrc);
-                    addEntry(newCVE);
+                    addEntry(new CroupierViewEntry(descriptor, epoch));
                 }
-            } else if (d2e.size() < viewSize) {
+            } else if (size < viewSize) {
                 // fill an empty slot
-                addEntry(new CroupierViewEntry(descriptor));
+                addEntry(new CroupierViewEntry(descriptor, epoch));
+                added++;
+            } else if (policy == CroupierSelectionPolicy.HEALER) {
+                // healer - the oldest descriptors are the most likely to be dead, give them up first
+                CroupierViewEntry<C> oldest = byAge.first();
+                if (oldest.getAge(epoch) > descriptor.getAge()) {
+                    removeEntry((Address)oldest.getDescriptor().getSource().getBaseAdr());
+                    addEntry(new CroupierViewEntry(descriptor, epoch));
+                    added++;
+                }
             } else {
-                // replace one slot out of those sent to this peer
-                CroupierViewEntry sentEntry = entriesSentToThisPeer.poll();
+                // replace one slot out of those sent to this peer and still in the view
+                CroupierViewEntry<C> sentEntry = entriesSentToThisPeer.poll();
+                while (sentEntry != null && !contains(sentEntry)) {
+                    sentEntry = entriesSentToThisPeer.poll();
+                }
                 if (sentEntry != null) {
                     removeEntry((Address)sentEntry.getDescriptor().getSource().getBaseAdr());
-                    addEntry(new CroupierViewEntry(descriptor));
+                    addEntry(new CroupierViewEntry(descriptor, epoch));
+                    added++;
                 }
             }
         }
+        return added;
     }
 
 //-------------------------------------------------------------------	
     public final Set<CroupierContainer<C>> getAllCopy() {
         Set<CroupierContainer<C>> descriptors = new HashSet<CroupierContainer<C>>();
-        for (CroupierViewEntry cacheEntry : d2e.values()) {
-            descriptors.add(cacheEntry.getDescriptor().getCopy());
+        for (int i = 0; i < size; i++) {
+            descriptors.add(entries[i].getCopy(epoch));
         }
         return descriptors;
     }
 
-    private List<CroupierViewEntry> generateRandomSample(int n) {
-        List<CroupierViewEntry> randomEntries = new ArrayList<CroupierViewEntry>();
-        if (n >= d2e.size()) {
-            //return a copy of all entries
-            randomEntries.addAll(d2e.values());
-            return randomEntries;
-        }
-        ArrayList<CroupierViewEntry> entries = new ArrayList<CroupierViewEntry>(d2e.values());
-        // Don Knuth, The Art of Computer Programming, Algorithm S(3.4.2)
-        int t = 0, m = 0, N = d2e.size();
-        while (m < n) {
-            int x = rand.nextInt(N - t);
-            if (x < n - m) {
-                randomEntries.add(entries.get(t));
-                m += 1;
-                t += 1;
-            } else {
-                t += 1;
+    /**
+     * An immutable set of the descriptors in the view, shared by everyone who asks until the membership changes.
+     * Ageing does not rebuild it, the descriptors read their age off the epoch of the view.
+     */
+    public Set<Container<NatedAddress, C>> snapshot() {
+        if (snapshot == null || snapshotVersion != version) {
+            Set<Container<NatedAddress, C>> descriptors = new HashSet<Container<NatedAddress, C>>();
+            for (int i = 0; i < size; i++) {
+                descriptors.add(new SnapshotEntry(entries[i]));
             }
+            snapshot = Collections.unmodifiableSet(descriptors);
+            snapshotVersion = version;
         }
-        return randomEntries;
+        return snapshot;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean hasChanges() {
+        return !addedSinceDrain.isEmpty() || !removedSinceDrain.isEmpty();
+    }
+
+    /**
+     * Descriptors added since the last drain, including refreshed ones. Apply drainRemoved first.
+     */
+    public Set<CroupierContainer<C>> drainAdded() {
+        Set<CroupierContainer<C>> added = new HashSet<CroupierContainer<C>>();
+        for (CroupierViewEntry<C> entry : addedSinceDrain.values()) {
+            added.add(entry.getCopy(epoch));
+        }
+        addedSinceDrain.clear();
+        return Collections.unmodifiableSet(added);
+    }
+
+    /**
+     * Peers removed since the last drain, including those whose descriptor was refreshed.
+     */
+    public Set<NatedAddress> drainRemoved() {
+        Set<NatedAddress> removed = new HashSet<NatedAddress>(removedSinceDrain.values());
+        removedSinceDrain.clear();
+        return Collections.unmodifiableSet(removed);
+    }
+
+    /**
+     * Moves a uniform random sample of min(n, size) entries to the front of the array with a partial
+     * Fisher-Yates shuffle and returns its size. Costs O(n) and allocates nothing; the sample is valid
+     * until the view is next modified.
+     */
+    private int sampleFront(int n) {
+        int sampleSize = Math.min(n, size);
+        for (int i = 0; i < sampleSize; i++) {
+            swap(i, i + rand.nextInt(size - i));
+        }
+        return sampleSize;
+    }
+
+    private boolean contains(CroupierViewEntry<C> entry) {
+        return entry.slot >= 0 && entry.slot < size && entries[entry.slot] == entry;
     }
 
-    private void addEntry(CroupierViewEntry entry) {
+    private void swap(int i, int j) {
+        if (i == j) {
+            return;
+        }
+        CroupierViewEntry<C> entry = entries[i];
+        entries[i] = entries[j];
+        entries[j] = entry;
+        entries[i].slot = i;
+        entries[j].slot = j;
+    }
+
+    private void addEntry(CroupierViewEntry<C> entry) {
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, 2 * entries.length);
+        }
+        entry.slot = size;
+        entry.seq = nextSeq++;
+        entries[size++] = entry;
+        byAge.add(entry);
         d2e.put((Address)entry.getDescriptor().getSource().getBaseAdr(), entry);
+        addedSinceDrain.put((Address)entry.getDescriptor().getSource().getBaseAdr(), entry);
+        version++;
     }
 
     private boolean removeEntry(Address src) {
-        return d2e.remove(src) != null;
+        CroupierViewEntry<C> entry = d2e.remove(src);
+        if (entry == null) {
+            return false;
+        }
+        byAge.remove(entry);
+        if (addedSinceDrain.remove(src) == null) {
+            removedSinceDrain.put(src, entry.getDescriptor().getSource());
+        }
+        version++;
+        size--;
+        swap(entry.slot, size);
+        entries[size] = null;
+        entry.slot = -1;
+        return true;
     }
 
-    public void timedOut(NatedAddress src) {
+    public void timedOut(UUID shuffleId, NatedAddress src) {
+        sentInShuffle.remove(shuffleId);
+        CroupierViewEntry<C> detached = detachedPartners.remove(shuffleId);
         removeEntry((Address)src.getBaseAdr());
+        if (detached != null && size == 0) {
+            // a likely dead partner is still better than an empty view
+            addEntry(detached);
+        }
+    }
+
+    /**
+     * Takes back an entry given to a shuffle that was left out of the message, so that it is not replaced
+     * by what the partner sends.
+     */
+    public void unsent(UUID shuffleId, NatedAddress peer) {
+        ArrayDeque<CroupierViewEntry<C>> sent = sentInShuffle.get(shuffleId);
+        CroupierViewEntry<C> entry = d2e.get((Address)peer.getBaseAdr());
+        if (sent != null && entry != null) {
+            sent.remove(entry);
+        }
+    }
+
+    /**
+     * Cyclon mode - takes the shuffle partner out of the view until its response arrives, so that every
+     * shuffle moves the link along as a step of a random walk. The partner is left in place while the view
+     * holds no more than minSize entries, so a node never shuffles itself out of the overlay.
+     *
+     * @return true if the partner was taken out
+     */
+    public boolean detachPartner(UUID shuffleId, NatedAddress partner, int minSize) {
+        CroupierViewEntry<C> entry = d2e.get((Address)partner.getBaseAdr());
+        if (entry == null || size <= Math.max(1, minSize)) {
+            return false;
+        }
+        removeEntry((Address)partner.getBaseAdr());
+        detachedPartners.put(shuffleId, entry);
+        return true;
+    }
+
+    public boolean contains(NatedAddress peer) {
+        return d2e.containsKey((Address)peer.getBaseAdr());
     }
 
     public boolean isEmpty() {
-        return d2e.isEmpty();
+        return size == 0;
     }
 
     public int size() {
-        return d2e.size();
-    }
-
-    //TODO Alex check if it matched to Abhi's soft max and replace
-    private int softMaxIndex(ArrayList<CroupierViewEntry> entries, double temperature) {
-        double rnd = rand.nextDouble();
-        double total = 0.0d;
-        double[] values = new double[entries.size()];
-        int j = entries.size() + 1;
-        for (int i = 0; i < entries.size(); i++) {
-            // get inverse of values - lowest have highest value.
-            double val = j;
-            j--;
-            values[i] = Math.exp(val / temperature);
-            total += values[i];
-        }
-
-        for (int i = 0; i < values.length; i++) {
-            if (i != 0) {
-                values[i] += values[i - 1];
+        return size;
+    }
+
+    /**
+     * Softmax over the age ranks, 0 being the oldest entry: rank r is drawn with probability proportional to
+     * exp(-r / temperature). The distribution is a truncated geometric one, so the rank is drawn directly by
+     * inverting its cdf instead of summing weights over the whole view.
+     */
+    private int softMaxRank(double temperature) {
+        double q = Math.exp(-1 / temperature);
+        double u = rand.nextDouble();
+        int rank = (int) (Math.log(1 - u * (1 - Math.pow(q, size))) / Math.log(q));
+        return Math.min(Math.max(rank, 0), size - 1);
+    }
+
+    /**
+     * Walks the age order from the oldest entry, counting only the entries that
+     * are not busy. Softmax ranks are small for any reasonable temperature, so
+     * this costs O(log V) to find the oldest entry plus a few steps.
+     *
+     * @return the entry of that rank, the youngest free one if there are fewer,
+     * or null if all are busy
+     */
+    private CroupierViewEntry<C> nthOldest(int rank, Set<Address> busy) {
+        CroupierViewEntry<C> entry = null;
+        int seen = 0;
+        for (CroupierViewEntry<C> next : byAge) {
+            if (busy.contains((Address) next.getDescriptor().getSource().getBaseAdr())) {
+                continue;
+            }
+            entry = next;
+            if (seen++ == rank) {
+                break;
+            }
+        }
+        return entry;
+    }
+
+    private CroupierViewEntry<C> randomFree(Set<Address> busy) {
+        List<CroupierViewEntry<C>> free = new ArrayList<CroupierViewEntry<C>>(size);
+        for (int i = 0; i < size; i++) {
+            if (!busy.contains((Address) entries[i].getDescriptor().getSource().getBaseAdr())) {
+                free.add(entries[i]);
+            }
+        }
+        return free.isEmpty() ? null : free.get(rand.nextInt(free.size()));
+    }
+
+    /**
+     * A descriptor of a snapshot, aged by the view it came from.
+     */
+    private class SnapshotEntry implements Container<NatedAddress, C>, Ageing {
+
+        private final CroupierViewEntry<C> entry;
+
+        SnapshotEntry(CroupierViewEntry<C> entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public NatedAddress getSource() {
+            return entry.getDescriptor().getSource();
+        }
+
+        @Override
+        public C getContent() {
+            return entry.getDescriptor().getContent();
+        }
+
+        @Override
+        public int getAge() {
+            return entry.getAge(epoch);
+        }
+
+        @Override
+        public String toString() {
+            return "<" + getSource() + ":" + getAge() + ">";
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 3;
+            hash = 53 * hash + getSource().hashCode();
+            hash = 53 * hash + (getContent() != null ? getContent().hashCode() : 0);
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
             }
-            // normalise the probability
-            double normalisedReward = values[i] / total;
-            if (normalisedReward >= rnd) {
-                return i;
+            final SnapshotEntry other = (SnapshotEntry) obj;
+            if (!getSource().equals(other.getSource())) {
+                return false;
             }
+            C content = getContent();
+            return content == other.getContent() || (content != null && content.equals(other.getContent()));
         }
-        return -1;
     }
 }
@@ -21,15 +21,12 @@
 package se.kth.swim.croupier.internal;
 
 import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Set;
-import se.sics.kompics.network.Address;
 
 /**
  * The <code>RandomViewEntry</code> class represents an entry in a node's
- * randomView. It contains a node descriptor and it marks when and to what peer this
- * entry was last sent to. This information is used in the process of updating
- * the randomView during a shuffle, so that the first randomView entries removed are those
+ * randomView. It contains a node descriptor and it marks when this entry was
+ * last sent. Which entries went out in a shuffle is recorded by the view per
+ * outstanding shuffle, so that the first randomView entries removed are those
  * that were sent to the peer from whom we received the current shuffle
  * response.
  * 
@@ -42,9 +39,10 @@ public class CroupierViewEntry<C extends Object> {
         ByAge() {
             @Override
             public int compare(CroupierViewEntry o1, CroupierViewEntry o2) {
-                if (o1.getDescriptor().getAge() > o2.getDescriptor().getAge()) {
+                // born earlier is older
+                if (o1.birthEpoch < o2.birthEpoch) {
                     return 1;
-                } else if (o1.getDescriptor().getAge() < o2.getDescriptor().getAge()) {
+                } else if (o1.birthEpoch > o2.birthEpoch) {
                     return -1;
                 } else {
                     return 0;
@@ -54,40 +52,66 @@ public class CroupierViewEntry<C extends Object> {
     }
 
     private final CroupierContainer<C> cc;
-    private final long addedAt;
-    private long sentAt;
-    private final Set<Address> sentTo = new HashSet<Address>();
+    /**
+     * view epoch at which the descriptor would have had age 0, its age is the
+     * current epoch of the view minus this
+     */
+    private final int birthEpoch;
+    /**
+     * view epochs at which the entry was added and last sent, the view's ageing is its only clock
+     */
+    private final int addedAt;
+    private int sentAt;
+    /**
+     * position of this entry in the dense entry array of its CroupierView
+     */
+    int slot = -1;
+    /**
+     * insertion order in the view, breaks ties between entries of the same age
+     */
+    long seq;
 
-    public CroupierViewEntry(CroupierContainer<C> cc) {
+    public CroupierViewEntry(CroupierContainer<C> cc, int epoch) {
         this.cc = cc;
-        this.addedAt = System.currentTimeMillis();
-        this.sentAt = 0;
+        this.birthEpoch = epoch - cc.getAge();
+        this.addedAt = epoch;
+        this.sentAt = -1;
     }
 
 
-    public void sentTo(Address peer) {
-        sentTo.add(peer);
-        sentAt = System.currentTimeMillis();
+    public void sent(int epoch) {
+        sentAt = epoch;
     }
 
+    /**
+     * the descriptor as it was received, its age is the age at insertion - use
+     * getAge(epoch) or getCopy(epoch) for the current age
+     */
     public CroupierContainer<C> getDescriptor() {
         return cc;
     }
 
-    public long getAddedAt() {
+    public int getAge(int epoch) {
+        return epoch - birthEpoch;
+    }
+
+    public CroupierContainer<C> getCopy(int epoch) {
+        return new CroupierContainer<C>(cc.getSource(), cc.getContent(), getAge(epoch));
+    }
+
+    public int getAddedAt() {
         return addedAt;
     }
 
-    public long getSentAt() {
+    /**
+     * @return epoch of the last shuffle the entry went out in, -1 if it never did
+     */
+    public int getSentAt() {
         return sentAt;
     }
 
-    public boolean wasSentTo(Address peer) {
-        return sentTo == null ? false : sentTo.contains(peer);
-    }
-    
     @Override
     public String toString() {
-        return cc.toString() + ": addedAt(" + addedAt + "): sentAt:(" + sentAt +")";
+        return cc.toString() + ": birthEpoch(" + birthEpoch + "): addedAt(" + addedAt + "): sentAt:(" + sentAt +")";
     }
 }
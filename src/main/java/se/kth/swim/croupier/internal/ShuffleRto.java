@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.croupier.internal;
+
+/**
+ * Retransmission timeout of shuffles. Jacobson's estimator over the round
+ * trips, with gains 1/8 and 1/4, gives srtt + 4 * rttvar but never less than
+ * twice the srtt. As in RFC 6298 the timeout has a floor, so that a fast or
+ * zero latency network cannot collapse it below the jitter, and is doubled on
+ * every timeout until a fresh round trip is measured.
+ *
+ * @author Alex Ormenisan <aaor@sics.se>
+ */
+public class ShuffleRto {
+
+    private final long minRto;
+    private final long maxRto;
+    //smoothed round trip time and its deviation, -1 until the first sample
+    private long srtt = -1;
+    private long rttVar = 0;
+    private long rto;
+
+    /**
+     * @param minRto floor of the timeout
+     * @param maxRto cap of the timeout, also used until a first round trip was measured
+     */
+    public ShuffleRto(long minRto, long maxRto) {
+        if (minRto <= 0 || minRto > maxRto) {
+            throw new IllegalArgumentException("shuffle timeout bounds must satisfy 0 < min <= max");
+        }
+        this.minRto = minRto;
+        this.maxRto = maxRto;
+        this.rto = maxRto;
+    }
+
+    public void sample(long rtt) {
+        if (srtt < 0) {
+            srtt = rtt;
+            rttVar = rtt / 2;
+        } else {
+            rttVar += (Math.abs(srtt - rtt) - rttVar) / 4;
+            srtt += (rtt - srtt) / 8;
+        }
+        rto = Math.min(maxRto, Math.max(minRto, Math.max(2 * srtt, srtt + 4 * rttVar)));
+    }
+
+    public void timedOut() {
+        rto = Math.min(maxRto, 2 * rto);
+    }
+
+    public long rto() {
+        return rto;
+    }
+}
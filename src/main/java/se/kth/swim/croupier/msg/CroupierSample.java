@@ -23,6 +23,10 @@ import se.kth.swim.croupier.util.Container;
 import se.kth.swim.nat.NatedAddress;
 
 /**
+ * A full sample of both views. The sets are immutable and shared with every
+ * subscriber. The ages of their descriptors are read off the views, so they
+ * keep ageing after the sample was published.
+ *
  * @author Alex Ormenisan <aaor@sics.se>
  */
 public class CroupierSample<C extends Object> implements CroupierMsg.OneWay {
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * Copyright (C) 2009 Royal Institute of Technology (KTH)
+ *
+ * Croupier is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.croupier.msg;
+
+import java.util.Set;
+import se.kth.swim.croupier.util.Container;
+import se.kth.swim.nat.NatedAddress;
+
+/**
+ * Changes of the views since the previous delta. A peer whose descriptor was
+ * refreshed is both removed and added, so removals are applied first.
+ */
+public class CroupierSampleDelta<C extends Object> implements CroupierMsg.OneWay {
+
+    public final int overlayId;
+    public final Set<Container<NatedAddress, C>> publicAdded;
+    public final Set<NatedAddress> publicRemoved;
+    public final Set<Container<NatedAddress, C>> privateAdded;
+    public final Set<NatedAddress> privateRemoved;
+
+    public CroupierSampleDelta(int overlayId, Set<Container<NatedAddress, C>> publicAdded, Set<NatedAddress> publicRemoved,
+            Set<Container<NatedAddress, C>> privateAdded, Set<NatedAddress> privateRemoved) {
+        this.overlayId = overlayId;
+        this.publicAdded = publicAdded;
+        this.publicRemoved = publicRemoved;
+        this.privateAdded = privateAdded;
+        this.privateRemoved = privateRemoved;
+    }
+
+    @Override
+    public String toString() {
+        return "SAMPLE_DELTA";
+    }
+}
@@ -27,9 +27,19 @@ public class CroupierUpdate {
 
   public static class View<C extends Object> implements CroupierMsg.OneWay {
 
+    /**
+     * overlay the view is for, null for every overlay of the croupier
+     */
+    public final Integer overlayId;
     public final C selfView;
 
+    public View(int overlayId, C selfView) {
+      this.overlayId = overlayId;
+      this.selfView = selfView;
+    }
+
     public View(C selfView) {
+      this.overlayId = null;
       this.selfView = selfView;
     }
 
@@ -19,11 +19,15 @@
 
 package se.kth.swim.croupier.util;
 
-import se.kth.swim.croupier.internal.CroupierShuffle;
 import se.kth.swim.network.impl.BasicContentMsg;
 import se.sics.kompics.ChannelSelector;
 
 /**
+ * Lets through the messages of one overlay header id. A croupier that
+ * multiplexes several overlays over one shuffle exchange stamps its messages
+ * with the id of the exchange, the overlays themselves travel inside the
+ * shuffle.
+ *
  * @author Alex Ormenisan <aaor@sics.se>
  */
 public class OverlayFilter extends ChannelSelector<BasicContentMsg, Integer> {
@@ -34,8 +38,7 @@ public class OverlayFilter extends ChannelSelector<BasicContentMsg, Integer> {
     
     @Override
     public Integer getValue(BasicContentMsg msg) {
-        if(msg.getContent() instanceof CroupierShuffle.Request
-          || msg.getContent() instanceof CroupierShuffle.Response) {
+        if(msg.getHeader() instanceof OverlayHeaderImpl) {
             return ((OverlayHeaderImpl)msg.getHeader()).getOverlayId();
         } else {
             return null;
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.msg;
+
+import se.kth.swim.nat.NatedAddress;
+import se.sics.kompics.KompicsEvent;
+
+import java.util.List;
+
+/**
+ * Messages exchanged between nodes and the BootstrapComp server.
+ */
+public class Bootstrap {
+
+    /**
+     * Registers the sender with the bootstrap server; resent periodically as a heartbeat.
+     */
+    public static class Register implements KompicsEvent {
+        @Override
+        public String toString() {
+            return "BOOTSTRAP_REGISTER";
+        }
+    }
+
+    public static class SampleRequest implements KompicsEvent {
+        private int sampleSize;
+        public SampleRequest(int sampleSize) {
+            this.sampleSize = sampleSize;
+        }
+
+        public int getSampleSize() {
+            return sampleSize;
+        }
+
+        @Override
+        public String toString() {
+            return "BOOTSTRAP_SAMPLE_REQUEST";
+        }
+    }
+
+    public static class Sample implements KompicsEvent {
+        private List<NatedAddress> peers;
+        public Sample(List<NatedAddress> peers) {
+            this.peers = peers;
+        }
+
+        public List<NatedAddress> getPeers() {
+            return peers;
+        }
+
+        @Override
+        public String toString() {
+            return "BOOTSTRAP_SAMPLE";
+        }
+    }
+}
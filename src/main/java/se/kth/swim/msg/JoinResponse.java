@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.msg;
+
+import se.sics.kompics.KompicsEvent;
+
+import java.util.*;
+
+/**
+ * One chunk of the membership snapshot streamed to a joining node. A snapshot is split into totalChunks
+ * chunks so that each one fits a single datagram; chunks may arrive in any order.
+ */
+public class JoinResponse implements KompicsEvent {
+    private UUID joinId;
+    private int chunkNo;
+    private int totalChunks;
+    private SortedMap<Integer, Status> peers = new TreeMap<>();
+
+    public JoinResponse(UUID joinId, int chunkNo, int totalChunks, SortedMap<Integer, Status> chunk){
+        this.joinId = joinId;
+        this.chunkNo = chunkNo;
+        this.totalChunks = totalChunks;
+        this.peers.putAll(chunk);
+    }
+    public UUID getJoinId() {
+        return joinId;
+    }
+
+    public int getChunkNo() {
+        return chunkNo;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+
+    public SortedMap<Integer, Status> getViewUpdate() {
+        return peers;
+    }
+}
@@ -22,6 +22,7 @@ package se.kth.swim.msg;
 import se.sics.kompics.KompicsEvent;
 
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.UUID;
 
@@ -32,7 +33,7 @@ public class Ping implements KompicsEvent {
     private UUID pingTimeoutId;
     private UUID pongTimeoutId;
     private PingPongType pingPongType;
-    private Map<Integer, Status> localViewUpdate = new TreeMap<>();
+    private SortedMap<Integer, Status> localViewUpdate = new TreeMap<>();
     public Ping(){ }
 
     public Ping(PingPongType pingPongType, UUID pongTimeoutId, Map<Integer, Status> localStateNodes) {
@@ -52,7 +53,7 @@ public class Ping implements KompicsEvent {
         return pingPongType;
     }
 
-    public Map<Integer, Status> getViewUpdate(){
+    public SortedMap<Integer, Status> getViewUpdate(){
         return localViewUpdate;
     }
 }
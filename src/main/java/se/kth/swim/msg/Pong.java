@@ -7,14 +7,14 @@ import java.util.*;
 public class Pong implements KompicsEvent {
     UUID pongTimeoutId;
     private PingPongType pingPongType;
-    private Map<Integer, Status> peers = new TreeMap<>();
+    private SortedMap<Integer, Status> peers = new TreeMap<>();
 
     public Pong(PingPongType pingpong, Map<Integer, Status> localState, UUID pongTimeoutId){
         this.peers.putAll(localState);
         this.pongTimeoutId = pongTimeoutId;
         this.pingPongType = pingpong;
     }
-    public Map<Integer, Status> getViewUpdate() {
+    public SortedMap<Integer, Status> getViewUpdate() {
         return peers;
     }
     public UUID getPongTimeoutId(){
@@ -23,6 +23,7 @@ import se.kth.swim.nat.NatedAddress;
 
 import static se.kth.swim.msg.StatusType.ALIVE;
 import static se.kth.swim.msg.StatusType.DEAD;
+import static se.kth.swim.msg.StatusType.LEFT;
 import static se.kth.swim.msg.StatusType.SUSPECTED;
 
 /**
@@ -79,6 +80,12 @@ public class Status {
         return false;
     }
 
+    public boolean isLeft() {
+        if(statusType.equals(LEFT))
+            return true;
+        return false;
+    }
+
     public StatusType getStatusType() {
         return statusType;
     }
@@ -4,6 +4,7 @@ public enum StatusType {
     ALIVE,
     DEAD,
     SUSPECTED,
+    LEFT,
     UNKNOWN
 
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.msg.net;
+
+import se.kth.swim.msg.Bootstrap;
+import se.kth.swim.nat.NatedAddress;
+import se.kth.swim.network.impl.BasicContentMsg;
+import se.sics.kompics.network.Header;
+
+import java.util.List;
+
+public class NetBootstrap {
+
+    public static class Register extends BasicContentMsg<Bootstrap.Register> {
+        public Register(NatedAddress src, NatedAddress dst) {
+            super(src, dst, new Bootstrap.Register());
+        }
+
+        private Register(Header<NatedAddress> header, Bootstrap.Register content) {
+            super(header, content);
+        }
+
+        @Override
+        public BasicContentMsg newHeader(Header<NatedAddress> newHeader) {
+            return new Register(newHeader, getContent());
+        }
+    }
+
+    public static class SampleRequest extends BasicContentMsg<Bootstrap.SampleRequest> {
+        public SampleRequest(NatedAddress src, NatedAddress dst, int sampleSize) {
+            super(src, dst, new Bootstrap.SampleRequest(sampleSize));
+        }
+
+        private SampleRequest(Header<NatedAddress> header, Bootstrap.SampleRequest content) {
+            super(header, content);
+        }
+
+        @Override
+        public BasicContentMsg newHeader(Header<NatedAddress> newHeader) {
+            return new SampleRequest(newHeader, getContent());
+        }
+    }
+
+    public static class Sample extends BasicContentMsg<Bootstrap.Sample> {
+        public Sample(NatedAddress src, NatedAddress dst, List<NatedAddress> peers) {
+            super(src, dst, new Bootstrap.Sample(peers));
+        }
+
+        private Sample(Header<NatedAddress> header, Bootstrap.Sample content) {
+            super(header, content);
+        }
+
+        @Override
+        public BasicContentMsg newHeader(Header<NatedAddress> newHeader) {
+            return new Sample(newHeader, getContent());
+        }
+    }
+}
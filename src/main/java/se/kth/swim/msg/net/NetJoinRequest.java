@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.msg.net;
+
+import se.kth.swim.msg.JoinRequest;
+import se.kth.swim.msg.Status;
+import se.kth.swim.nat.NatedAddress;
+import se.kth.swim.network.impl.BasicContentMsg;
+import se.sics.kompics.network.Header;
+
+import java.util.UUID;
+
+public class NetJoinRequest extends BasicContentMsg<JoinRequest> {
+    public NetJoinRequest(NatedAddress src, NatedAddress dst, UUID joinId, Status joinerStatus) {
+        super(src, dst, new JoinRequest(joinId, joinerStatus));
+    }
+
+    private NetJoinRequest(Header<NatedAddress> header, JoinRequest content) {
+        super(header, content);
+    }
+
+    @Override
+    public BasicContentMsg newHeader(Header<NatedAddress> newHeader) {
+        return new NetJoinRequest(newHeader, getContent());
+    }
+}
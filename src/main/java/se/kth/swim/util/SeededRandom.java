@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.util;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Random source of a component, derived from the seed of its host. Ids are
+ * drawn from it as well, unlike UUID.randomUUID, so a seeded run makes the same
+ * choices and uses the same ids every time.
+ */
+public class SeededRandom extends Random {
+
+  public SeededRandom(long seed) {
+    super(seed);
+  }
+
+  public UUID nextUUID() {
+    return new UUID(nextLong(), nextLong());
+  }
+}
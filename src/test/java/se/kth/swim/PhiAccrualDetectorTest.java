@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PhiAccrualDetectorTest {
+
+    private static final long PONG_TIMEOUT = 2000;
+    private static final double PHI_THRESHOLD = 8;
+
+    @Test
+    public void fixedTimeoutUntilEnoughSamples() {
+        PhiAccrualDetector detector = new PhiAccrualDetector(100, 50);
+        for (int i = 0; i < 4; i++) {
+            detector.arrival(7, 100);
+            Assert.assertEquals(PONG_TIMEOUT, detector.timeout(7, PHI_THRESHOLD, PONG_TIMEOUT));
+        }
+        Assert.assertTrue(Double.isNaN(detector.phi(7, 100)));
+    }
+
+    @Test
+    public void timeoutFollowsTheRoundTrips() {
+        PhiAccrualDetector detector = new PhiAccrualDetector(100, 50);
+        for (int i = 0; i < 20; i++) {
+            detector.arrival(7, 90 + (i % 3) * 10);
+        }
+        long timeout = detector.timeout(7, PHI_THRESHOLD, PONG_TIMEOUT);
+        Assert.assertTrue(timeout > 100);
+        Assert.assertTrue(timeout < PONG_TIMEOUT);
+        Assert.assertEquals(PHI_THRESHOLD, detector.phi(7, timeout), 0.1);
+        //a lower threshold gives up sooner
+        Assert.assertTrue(detector.timeout(7, 1, PONG_TIMEOUT) < timeout);
+        //other members keep the fixed timeout
+        Assert.assertEquals(PONG_TIMEOUT, detector.timeout(8, PHI_THRESHOLD, PONG_TIMEOUT));
+    }
+
+    @Test
+    public void removedMemberFallsBackToFixedTimeout() {
+        PhiAccrualDetector detector = new PhiAccrualDetector(100, 50);
+        for (int i = 0; i < 10; i++) {
+            detector.arrival(7, 100);
+        }
+        Assert.assertTrue(detector.timeout(7, PHI_THRESHOLD, PONG_TIMEOUT) < PONG_TIMEOUT);
+        detector.remove(7);
+        Assert.assertEquals(PONG_TIMEOUT, detector.timeout(7, PHI_THRESHOLD, PONG_TIMEOUT));
+    }
+}
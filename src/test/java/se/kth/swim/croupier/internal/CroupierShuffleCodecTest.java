@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.croupier.internal;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Test;
+import se.kth.swim.nat.NatType;
+import se.kth.swim.nat.NatedAddress;
+import se.kth.swim.network.impl.BasicAddress;
+import se.kth.swim.network.impl.BasicNatedAddress;
+
+public class CroupierShuffleCodecTest {
+
+    private final CroupierShuffleCodec codec = new CroupierShuffleCodec();
+
+    @Test
+    public void requestRoundTrip() throws UnknownHostException {
+        CroupierShuffle.Request request = new CroupierShuffle.Request(UUID.randomUUID(), overlays(), 0.4);
+
+        CroupierShuffle.Basic decoded = codec.decode(codec.encode(request));
+
+        Assert.assertTrue(decoded instanceof CroupierShuffle.Request);
+        Assert.assertEquals(request, decoded);
+        Assert.assertEquals(0.4, decoded.publicRatio, 1.0 / 0xFFFF);
+        assertSameParents(request, decoded);
+    }
+
+    @Test
+    public void responseRoundTrip() throws UnknownHostException {
+        CroupierShuffle.Response response = new CroupierShuffle.Response(UUID.randomUUID(), overlays(), 1);
+
+        CroupierShuffle.Basic decoded = codec.decode(codec.encode(response));
+
+        Assert.assertTrue(decoded instanceof CroupierShuffle.Response);
+        Assert.assertEquals(response, decoded);
+        Assert.assertEquals(1, decoded.publicRatio, 0);
+        assertSameParents(response, decoded);
+    }
+
+    @Test
+    public void descriptorSizesFitInTheEncoding() throws UnknownHostException {
+        CroupierShuffle.Request request = new CroupierShuffle.Request(UUID.randomUUID(), overlays(), 0.5);
+        Map<CroupierContainer, Integer> sizes = new IdentityHashMap<CroupierContainer, Integer>();
+
+        int size = codec.encodedSize(request, sizes);
+
+        Assert.assertEquals(codec.encode(request).length, size);
+        int descriptors = 0;
+        int descriptorBytes = 0;
+        for (CroupierShuffle.Descriptors sets : request.overlays.values()) {
+            descriptors += sets.publicNodes.size() + sets.privateNodes.size();
+        }
+        for (int bytes : sizes.values()) {
+            Assert.assertTrue(bytes > 0);
+            descriptorBytes += bytes;
+        }
+        Assert.assertEquals(descriptors, sizes.size());
+        Assert.assertTrue(descriptorBytes < size);
+    }
+
+    private static Map<Integer, CroupierShuffle.Descriptors> overlays() throws UnknownHostException {
+        InetAddress local = InetAddress.getByName("127.0.0.1");
+        InetAddress remote = InetAddress.getByName("10.0.0.7");
+        NatedAddress parent1 = open(local, 10);
+        NatedAddress parent2 = open(remote, 12);
+        List<NatedAddress> parents = new LinkedList<NatedAddress>();
+        parents.add(parent1);
+        parents.add(parent2);
+
+        Map<Integer, CroupierShuffle.Descriptors> overlays = new HashMap<Integer, CroupierShuffle.Descriptors>();
+        Set<CroupierContainer> publicNodes = new HashSet<CroupierContainer>();
+        publicNodes.add(new CroupierContainer(parent1, null, 3));
+        publicNodes.add(new CroupierContainer(parent2, null, 0));
+        publicNodes.add(new CroupierContainer(open(local, 4), null, 200));
+        Set<CroupierContainer> privateNodes = new HashSet<CroupierContainer>();
+        privateNodes.add(new CroupierContainer(nated(local, 7, parents), null, 1));
+        privateNodes.add(new CroupierContainer(nated(remote, 3, parents.subList(1, 2)), null, 17));
+        overlays.put(1, new CroupierShuffle.Descriptors(publicNodes, privateNodes));
+        overlays.put(-2, new CroupierShuffle.Descriptors(new HashSet<CroupierContainer>(),
+                new HashSet<CroupierContainer>()));
+        return overlays;
+    }
+
+    private static NatedAddress open(InetAddress ip, int id) {
+        return new BasicNatedAddress(new BasicAddress(ip, 12345, id));
+    }
+
+    private static NatedAddress nated(InetAddress ip, int id, List<NatedAddress> parents) {
+        return new BasicNatedAddress(new BasicAddress(ip, 23456, id), NatType.NAT, new LinkedList<NatedAddress>(parents));
+    }
+
+    /**
+     * address equality only looks at the base address, the parents of nated descriptors are compared here
+     */
+    private static void assertSameParents(CroupierShuffle.Basic expected, CroupierShuffle.Basic actual) {
+        for (Map.Entry<Integer, CroupierShuffle.Descriptors> overlay : expected.overlays.entrySet()) {
+            Map<Integer, NatedAddress> decoded = new HashMap<Integer, NatedAddress>();
+            for (CroupierContainer descriptor : actual.overlays.get(overlay.getKey()).privateNodes) {
+                decoded.put(descriptor.getSource().getId(), descriptor.getSource());
+            }
+            for (CroupierContainer descriptor : overlay.getValue().privateNodes) {
+                NatedAddress src = descriptor.getSource();
+                Assert.assertFalse(decoded.get(src.getId()).isOpen());
+                Assert.assertEquals(src.getParents(), decoded.get(src.getId()).getParents());
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.croupier.internal;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Test;
+import se.kth.swim.croupier.CroupierSelectionPolicy;
+import se.kth.swim.croupier.util.Ageing;
+import se.kth.swim.croupier.util.Container;
+import se.kth.swim.nat.NatedAddress;
+import se.kth.swim.network.impl.BasicAddress;
+import se.kth.swim.network.impl.BasicNatedAddress;
+
+public class CroupierViewTest {
+
+    @Test
+    public void snapshotSurvivesAgeingAndReadsCurrentAges() throws UnknownHostException {
+        CroupierView<Object> view = new CroupierView<Object>(address(0).getBaseAdr(), 10, 0, new Random(123));
+        Set<CroupierContainer<Object>> descriptors = new HashSet<CroupierContainer<Object>>();
+        for (int id = 1; id <= 3; id++) {
+            descriptors.add(new CroupierContainer<Object>(address(id), null, id));
+        }
+        view.selectToKeep(CroupierSelectionPolicy.RANDOM, UUID.randomUUID(), address(1), descriptors);
+
+        Set<Container<NatedAddress, Object>> snapshot = view.snapshot();
+        Assert.assertEquals(3, snapshot.size());
+        Assert.assertEquals(ages(1, 2, 3), ages(snapshot));
+
+        view.incrementDescriptorAges();
+        view.incrementDescriptorAges();
+        Assert.assertSame(snapshot, view.snapshot());
+        Assert.assertEquals(ages(3, 4, 5), ages(snapshot));
+    }
+
+    @Test
+    public void snapshotRebuiltWhenMembershipChanges() throws UnknownHostException {
+        CroupierView<Object> view = new CroupierView<Object>(address(0).getBaseAdr(), 10, 0, new Random(123));
+        Set<CroupierContainer<Object>> descriptors = new HashSet<CroupierContainer<Object>>();
+        descriptors.add(new CroupierContainer<Object>(address(1), null, 0));
+        view.selectToKeep(CroupierSelectionPolicy.RANDOM, UUID.randomUUID(), address(1), descriptors);
+        Set<Container<NatedAddress, Object>> snapshot = view.snapshot();
+
+        descriptors.clear();
+        descriptors.add(new CroupierContainer<Object>(address(2), null, 0));
+        view.selectToKeep(CroupierSelectionPolicy.RANDOM, UUID.randomUUID(), address(2), descriptors);
+
+        Assert.assertNotSame(snapshot, view.snapshot());
+        Assert.assertEquals(1, snapshot.size());
+        Assert.assertEquals(2, view.snapshot().size());
+    }
+
+    private static Map<Integer, Integer> ages(int... ages) {
+        Map<Integer, Integer> byId = new HashMap<Integer, Integer>();
+        for (int i = 0; i < ages.length; i++) {
+            byId.put(i + 1, ages[i]);
+        }
+        return byId;
+    }
+
+    private static Map<Integer, Integer> ages(Set<Container<NatedAddress, Object>> snapshot) {
+        Map<Integer, Integer> byId = new HashMap<Integer, Integer>();
+        for (Container<NatedAddress, Object> descriptor : snapshot) {
+            byId.put(descriptor.getSource().getId(), ((Ageing) descriptor).getAge());
+        }
+        return byId;
+    }
+
+    private static NatedAddress address(int id) throws UnknownHostException {
+        return new BasicNatedAddress(new BasicAddress(InetAddress.getByName("127.0.0.1"), 12345, id));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.croupier.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ShuffleRtoTest {
+
+    @Test
+    public void maxUntilFirstSample() {
+        ShuffleRto rto = new ShuffleRto(100, 1000);
+        Assert.assertEquals(1000, rto.rto());
+    }
+
+    @Test
+    public void followsTheRoundTrips() {
+        ShuffleRto rto = new ShuffleRto(100, 10000);
+        for (int i = 0; i < 50; i++) {
+            rto.sample(400);
+        }
+        //a steady round trip leaves twice the srtt
+        Assert.assertEquals(800, rto.rto());
+        for (int i = 0; i < 50; i++) {
+            rto.sample(i % 2 == 0 ? 200 : 600);
+        }
+        //jitter widens it past twice the srtt
+        Assert.assertTrue(rto.rto() > 800);
+        Assert.assertTrue(rto.rto() <= 10000);
+    }
+
+    @Test
+    public void neverBelowTheFloor() {
+        ShuffleRto rto = new ShuffleRto(100, 1000);
+        for (int i = 0; i < 50; i++) {
+            rto.sample(0);
+        }
+        Assert.assertEquals(100, rto.rto());
+        rto.sample(3);
+        Assert.assertEquals(100, rto.rto());
+    }
+
+    @Test
+    public void doublesOnTimeoutUntilAFreshSample() {
+        ShuffleRto rto = new ShuffleRto(100, 1000);
+        for (int i = 0; i < 50; i++) {
+            rto.sample(0);
+        }
+        rto.timedOut();
+        Assert.assertEquals(200, rto.rto());
+        rto.timedOut();
+        Assert.assertEquals(400, rto.rto());
+        rto.timedOut();
+        rto.timedOut();
+        Assert.assertEquals(1000, rto.rto());
+        rto.sample(0);
+        Assert.assertEquals(100, rto.rto());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.simulation;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.swim.NatTraversalComp;
+import se.kth.swim.croupier.CroupierComp;
+import se.kth.swim.croupier.CroupierConfig;
+import se.kth.swim.croupier.CroupierPort;
+import se.kth.swim.croupier.msg.CroupierSample;
+import se.kth.swim.croupier.util.Container;
+import se.kth.swim.croupier.util.OverlayFilter;
+import se.kth.swim.nat.NatedAddress;
+import se.kth.swim.util.Clock;
+import se.sics.kompics.Channel;
+import se.sics.kompics.Component;
+import se.sics.kompics.ComponentDefinition;
+import se.sics.kompics.Handler;
+import se.sics.kompics.Init;
+import se.sics.kompics.Positive;
+import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.Timer;
+
+/**
+ * Simulation host running a croupier only, behind nat traversal as in HostComp,
+ * reporting every sample it publishes and every shuffle it sends to the overlay
+ * statistics of the benchmark.
+ *
+ * @author Alex Ormenisan <aaor@sics.se>
+ */
+public class CroupierBenchHost extends ComponentDefinition {
+
+    private static final Logger log = LoggerFactory.getLogger(CroupierBenchHost.class);
+    private Positive<Network> network = requires(Network.class);
+    private Positive<Timer> timer = requires(Timer.class);
+
+    private final NatedAddress selfAddress;
+    private final CroupierOverlayStats stats;
+    private final Clock clock;
+    private final Component croupier;
+    private final Component meter;
+    private final Component nat;
+
+    public CroupierBenchHost(CroupierBenchHostInit init) {
+        this.selfAddress = init.selfAddress;
+        this.stats = init.stats;
+        this.clock = init.clock;
+        log.debug("{} initiating...", new Object[]{selfAddress});
+
+        int overlayId = 1;
+        croupier = create(CroupierComp.class, new CroupierComp.CroupierInit(selfAddress, init.bootstrapNodes, init.seed,
+                init.croupierConfig, overlayId, Collections.singletonList(overlayId), clock));
+        connect(croupier.getNegative(Timer.class), timer, Channel.TWO_WAY);
+        subscribe(handleSample, croupier.getPositive(CroupierPort.class));
+
+        nat = create(NatTraversalComp.class, new NatTraversalComp.NatTraversalInit(selfAddress, init.seed));
+        connect(nat.getNegative(Network.class), network, Channel.TWO_WAY);
+        connect(nat.getNegative(CroupierPort.class), croupier.getPositive(CroupierPort.class), Channel.TWO_WAY);
+
+        meter = create(ShuffleTrafficMeter.class, new ShuffleTrafficMeter.ShuffleTrafficMeterInit(stats));
+        connect(meter.getNegative(Network.class), nat.getPositive(Network.class), new OverlayFilter(overlayId),
+                Channel.TWO_WAY);
+        connect(croupier.getNegative(Network.class), meter.getPositive(Network.class), Channel.TWO_WAY);
+
+        stats.joined(selfAddress.getId());
+    }
+
+    private Handler<CroupierSample> handleSample = new Handler<CroupierSample>() {
+
+        @Override
+        public void handle(CroupierSample sample) {
+            Set<Integer> view = new HashSet<>();
+            for (Object descriptor : sample.publicSample) {
+                view.add(((Container<NatedAddress, ?>) descriptor).getSource().getId());
+            }
+            for (Object descriptor : sample.privateSample) {
+                view.add(((Container<NatedAddress, ?>) descriptor).getSource().getId());
+            }
+            stats.record(clock.now(), selfAddress.getId(), view);
+        }
+    };
+
+    public static class CroupierBenchHostInit extends Init<CroupierBenchHost> {
+
+        public final NatedAddress selfAddress;
+        public final List<NatedAddress> bootstrapNodes;
+        public final long seed;
+        public final CroupierConfig croupierConfig;
+        public final CroupierOverlayStats stats;
+        /**
+         * time source of the host and its croupier, samples are recorded at its time
+         */
+        public final Clock clock;
+
+        public CroupierBenchHostInit(NatedAddress selfAddress, List<NatedAddress> bootstrapNodes, long seed,
+                CroupierConfig croupierConfig, CroupierOverlayStats stats, Clock clock) {
+            this.selfAddress = selfAddress;
+            this.bootstrapNodes = bootstrapNodes;
+            this.seed = seed;
+            this.croupierConfig = croupierConfig;
+            this.stats = stats;
+            this.clock = clock;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.simulation;
+
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.swim.croupier.CroupierConfig;
+import se.sics.kompics.simulator.SimulationScenario;
+import se.sics.kompics.simulator.run.LauncherComp;
+
+/**
+ * Small version of CroupierMixingBenchmark that runs with the other tests: an
+ * overlay of a few hundred croupier nodes must keep every view non-empty, and
+ * Cyclon partner removal must leave a more even in-degree than plain shuffles.
+ *
+ * @author Alex Ormenisan <aaor@sics.se>
+ */
+public class CroupierCyclonSwapTest {
+
+    private static final Logger log = LoggerFactory.getLogger(CroupierCyclonSwapTest.class);
+    private static final long SEED = 123;
+    private static final int NODES = 150;
+    private static final long SHUFFLE_PERIOD = 1000;
+    private static final long DURATION = 60 * SHUFFLE_PERIOD;
+
+    @Test
+    public void swapKeepsViewsAndEvensInDegree() {
+        double plain = settledInDegreeVariance(false);
+        double swap = settledInDegreeVariance(true);
+        log.info("in-degree variance without swap:{} with swap:{}", plain, swap);
+        Assert.assertTrue("in-degree variance with swap " + swap + " not below " + plain, swap < plain);
+    }
+
+    /**
+     * @return mean in-degree variance over the second half of the run, once the bootstrap lattice is gone
+     */
+    private double settledInDegreeVariance(boolean cyclonSwap) {
+        CroupierConfig croupierConfig = new CroupierConfig.Builder(10, 5, SHUFFLE_PERIOD, SHUFFLE_PERIOD / 2)
+                .cyclonSwap(cyclonSwap)
+                .build();
+        CroupierOverlayStats stats = new CroupierOverlayStats(NODES, SHUFFLE_PERIOD);
+        SimulationScenario.setSeed(SEED);
+        CroupierMixingScenario.mixing(SEED, NODES, croupierConfig, stats, DURATION).simulate(LauncherComp.class);
+
+        List<CroupierOverlayStats.Measurement> measurements = stats.getMeasurements();
+        List<CroupierOverlayStats.Measurement> settled = measurements.subList(measurements.size() / 2,
+                measurements.size());
+        Assert.assertFalse(settled.isEmpty());
+        double variance = 0;
+        for (CroupierOverlayStats.Measurement m : settled) {
+            Assert.assertEquals("nodes not reporting at " + m, m.live, m.reporting);
+            Assert.assertEquals("empty views at " + m, 0, m.emptyViews);
+            variance += m.inDegreeVariance;
+        }
+        return variance / settled.size();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.simulation;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.swim.croupier.CroupierConfig;
+import se.sics.kompics.simulator.SimulationScenario;
+import se.sics.kompics.simulator.run.LauncherComp;
+
+/**
+ * Compares how fast croupier overlays mix and how even their in-degree gets
+ * with and without Cyclon partner removal. Mixing time is the locality proxy
+ * of CroupierOverlayStats, not a measure of randomness. The runs take long, so
+ * they only run with -Dcroupier.benchmark=true; CroupierCyclonSwapTest checks
+ * the same comparison on a small overlay in every test run.
+ *
+ * @author Alex Ormenisan <aaor@sics.se>
+ */
+public class CroupierMixingBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(CroupierMixingBenchmark.class);
+    private static final long SEED = 123;
+    private static final long SHUFFLE_PERIOD = 1000;
+    private static final long DURATION = 200 * SHUFFLE_PERIOD;
+
+    @Test
+    public void mixing1k() {
+        Assume.assumeTrue(Boolean.getBoolean("croupier.benchmark"));
+        compare(1000);
+    }
+
+    @Test
+    public void mixing10k() {
+        Assume.assumeTrue(Boolean.getBoolean("croupier.benchmark"));
+        compare(10000);
+    }
+
+    private void compare(int nrNodes) {
+        run(nrNodes, false);
+        run(nrNodes, true);
+    }
+
+    private void run(int nrNodes, boolean cyclonSwap) {
+        CroupierConfig croupierConfig = new CroupierConfig.Builder(10, 5, SHUFFLE_PERIOD, SHUFFLE_PERIOD / 2)
+                .cyclonSwap(cyclonSwap)
+                .build();
+        CroupierOverlayStats stats = new CroupierOverlayStats(nrNodes, SHUFFLE_PERIOD);
+        SimulationScenario.setSeed(SEED);
+        CroupierMixingScenario.mixing(SEED, nrNodes, croupierConfig, stats, DURATION).simulate(LauncherComp.class);
+
+        log.info("nodes:{} cyclon swap:{} mixing time:{}ms (random locality:{}) final {}", new Object[]{nrNodes,
+            cyclonSwap, stats.mixingTime(), stats.randomLocality(), stats.last()});
+        for (CroupierOverlayStats.Measurement m : stats.getMeasurements()) {
+            log.debug("{}", m);
+        }
+    }
+}
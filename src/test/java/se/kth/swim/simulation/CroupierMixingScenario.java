@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.simulation;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedList;
+import java.util.List;
+import se.kth.swim.croupier.CroupierConfig;
+import se.kth.swim.nat.NatedAddress;
+import se.kth.swim.network.impl.BasicAddress;
+import se.kth.swim.network.impl.BasicNatedAddress;
+import se.kth.swim.util.Clock;
+import se.sics.kompics.ComponentDefinition;
+import se.sics.kompics.Init;
+import se.sics.kompics.network.Address;
+import se.sics.kompics.simulator.SimulationScenario;
+import se.sics.kompics.simulator.adaptor.Operation1;
+import se.sics.kompics.simulator.adaptor.distributions.extra.BasicIntSequentialDistribution;
+import se.sics.kompics.simulator.events.system.StartNodeEvent;
+
+/**
+ * Boots an overlay of open croupier-only nodes, each bootstrapping from its
+ * predecessors, and lets it shuffle for a while so the mixing of the overlay
+ * can be followed in the overlay statistics.
+ *
+ * @author Alex Ormenisan <aaor@sics.se>
+ */
+public class CroupierMixingScenario {
+
+    private static final int BOOTSTRAP_NODES = 4;
+    private static InetAddress localHost;
+
+    static {
+        try {
+            localHost = InetAddress.getByName("127.0.0.1");
+        } catch (UnknownHostException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    static Operation1<StartNodeEvent, Integer> startNodeOp(final long seed, final CroupierConfig croupierConfig,
+            final CroupierOverlayStats stats) {
+        return new Operation1<StartNodeEvent, Integer>() {
+
+            @Override
+            public StartNodeEvent generate(final Integer nodeId) {
+                return new StartNodeEvent() {
+                    private final NatedAddress nodeAddress = getAddress(nodeId);
+
+                    @Override
+                    public Address getNodeAddress() {
+                        return nodeAddress;
+                    }
+
+                    @Override
+                    public Class<? extends ComponentDefinition> getComponentDefinition() {
+                        return CroupierBenchHost.class;
+                    }
+
+                    @Override
+                    public Init getComponentInit() {
+                        return new CroupierBenchHost.CroupierBenchHostInit(nodeAddress, bootstrapNodes(nodeId),
+                                seed + nodeId, croupierConfig, stats, Clock.SYSTEM);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @param duration simulated time the overlay shuffles after the last node started, in ms
+     */
+    public static SimulationScenario mixing(final long seed, final int nrNodes, final CroupierConfig croupierConfig,
+            final CroupierOverlayStats stats, final long duration) {
+        SimulationScenario scen = new SimulationScenario() {
+            {
+                StochasticProcess setupSystem = new StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(10));
+                        raise(1, SwimScenario.setupSystemOp);
+                    }
+                };
+
+                StochasticProcess startPeers = new StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1));
+                        raise(nrNodes, startNodeOp(seed, croupierConfig, stats), new BasicIntSequentialDistribution(1));
+                    }
+                };
+
+                setupSystem.start();
+                startPeers.startAfterTerminationOf(10, setupSystem);
+                terminateAfterTerminationOf(duration, startPeers);
+            }
+        };
+
+        scen.setSeed(seed);
+
+        return scen;
+    }
+
+    static List<NatedAddress> bootstrapNodes(int selfId) {
+        List<NatedAddress> bootstrap = new LinkedList<>();
+        for (int nodeId = selfId - BOOTSTRAP_NODES; nodeId < selfId; nodeId++) {
+            if (nodeId >= 1) {
+                bootstrap.add(getAddress(nodeId));
+            }
+        }
+        return bootstrap;
+    }
+
+    static NatedAddress getAddress(int nodeId) {
+        return new BasicNatedAddress(new BasicAddress(localHost, 12345, nodeId));
+    }
+}
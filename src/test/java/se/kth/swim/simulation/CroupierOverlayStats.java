@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Global picture of a simulated croupier overlay, built from the samples every
+ * node publishes and the shuffles it sends. The latest view of each live node
+ * is kept and the overlay is measured once per period of simulated time.
+ *
+ * Locality is the fraction of view links between nodes at most LOCALITY ids
+ * apart. Nodes bootstrap from their predecessors, so the overlay starts out as
+ * a ring lattice with locality 1. Mixing time is only a proxy: the overlay is
+ * taken as mixed once locality is within MIXED_FACTOR of what uniformly random
+ * views would give, a threshold picked by hand rather than derived.
+ *
+ * A live node counts as having an empty view when its last sample held no live
+ * node, or when it published no sample for SILENT_PERIODS periods, since
+ * croupier stops publishing once its views are empty.
+ *
+ * Uniformity is the chi-square statistic of how often each live node showed up
+ * in the samples of the period against equal shares, divided by its degrees of
+ * freedom - around 1 for uniform samples, far above for skewed ones.
+ *
+ * @author Alex Ormenisan <aaor@sics.se>
+ */
+public class CroupierOverlayStats {
+
+    private static final int LOCALITY = 8;
+    private static final double MIXED_FACTOR = 2;
+    private static final int SILENT_PERIODS = 3;
+    //clustering is measured on at most this many nodes per period
+    private static final int CLUSTERING_NODES = 1000;
+
+    private final int nrNodes;
+    private final long period;
+    private final Map<Integer, Set<Integer>> views = new HashMap<>();
+    private final Map<Integer, Long> lastReport = new HashMap<>();
+    private final Set<Integer> live = new HashSet<>();
+    private final List<Measurement> measurements = new ArrayList<>();
+    private long nextMeasurement = -1;
+    //counters of the current period
+    private final Map<Integer, Integer> sampled = new HashMap<>();
+    private long sampledDescriptors = 0;
+    private long deadDescriptors = 0;
+    private long shuffleBytes = 0;
+
+    /**
+     * @param nrNodes size the overlay is booted with
+     */
+    public CroupierOverlayStats(int nrNodes, long period) {
+        this.nrNodes = nrNodes;
+        this.period = period;
+    }
+
+    public void joined(int nodeId) {
+        live.add(nodeId);
+    }
+
+    public void left(int nodeId) {
+        live.remove(nodeId);
+        views.remove(nodeId);
+        lastReport.remove(nodeId);
+    }
+
+    public List<Integer> liveNodes() {
+        return new ArrayList<>(live);
+    }
+
+    public void sent(int bytes) {
+        shuffleBytes += bytes;
+    }
+
+    public void record(long time, int nodeId, Set<Integer> view) {
+        if (nextMeasurement < 0) {
+            nextMeasurement = time + period;
+        }
+        while (time >= nextMeasurement) {
+            measurements.add(measure(nextMeasurement));
+            nextMeasurement += period;
+        }
+        if (!live.contains(nodeId)) {
+            return;
+        }
+        views.put(nodeId, view);
+        lastReport.put(nodeId, time);
+        for (Integer neighbour : view) {
+            sampledDescriptors++;
+            if (live.contains(neighbour)) {
+                Integer count = sampled.get(neighbour);
+                sampled.put(neighbour, count == null ? 1 : count + 1);
+            } else {
+                deadDescriptors++;
+            }
+        }
+    }
+
+    private Measurement measure(long time) {
+        Measurement m = new Measurement(time, live.size(), views.size());
+        Map<Integer, Integer> inDegree = new HashMap<>();
+        long links = 0;
+        long localLinks = 0;
+        for (Map.Entry<Integer, Set<Integer>> view : views.entrySet()) {
+            for (Integer neighbour : view.getValue()) {
+                if (!live.contains(neighbour)) {
+                    continue;
+                }
+                Integer degree = inDegree.get(neighbour);
+                inDegree.put(neighbour, degree == null ? 1 : degree + 1);
+                links++;
+                if (Math.abs(neighbour - view.getKey()) <= LOCALITY) {
+                    localLinks++;
+                }
+            }
+        }
+        for (Integer node : live) {
+            Long reported = lastReport.get(node);
+            if (reported == null || reported < time - SILENT_PERIODS * period || !anyLive(views.get(node))) {
+                m.emptyViews++;
+            }
+        }
+        int[] degrees = new int[live.size()];
+        int i = 0;
+        for (Integer node : live) {
+            Integer degree = inDegree.get(node);
+            degrees[i++] = degree == null ? 0 : degree;
+        }
+        Arrays.sort(degrees);
+        if (degrees.length > 0) {
+            double mean = (double) links / degrees.length;
+            double squares = 0;
+            for (int degree : degrees) {
+                squares += (degree - mean) * (degree - mean);
+            }
+            m.inDegreeMean = mean;
+            m.inDegreeVariance = squares / degrees.length;
+            m.inDegreeMin = degrees[0];
+            m.inDegreeP5 = degrees[(int) (0.05 * (degrees.length - 1))];
+            m.inDegreeP50 = degrees[(int) (0.5 * (degrees.length - 1))];
+            m.inDegreeP95 = degrees[(int) (0.95 * (degrees.length - 1))];
+            m.inDegreeMax = degrees[degrees.length - 1];
+        }
+        m.locality = links == 0 ? 0 : (double) localLinks / links;
+        m.clustering = clustering(time);
+        m.uniformity = uniformity();
+        m.deadFraction = sampledDescriptors == 0 ? 0 : (double) deadDescriptors / sampledDescriptors;
+        m.shuffleBytesPerNodeSecond = live.isEmpty() ? 0 : shuffleBytes / (live.size() * (period / 1000.0));
+
+        sampled.clear();
+        sampledDescriptors = 0;
+        deadDescriptors = 0;
+        shuffleBytes = 0;
+        return m;
+    }
+
+    /**
+     * mean local clustering coefficient of the undirected overlay, over a random subset of the live nodes
+     */
+    private double clustering(long time) {
+        Map<Integer, Set<Integer>> neighbours = new HashMap<>();
+        for (Map.Entry<Integer, Set<Integer>> view : views.entrySet()) {
+            for (Integer neighbour : view.getValue()) {
+                if (live.contains(neighbour) && !neighbour.equals(view.getKey())) {
+                    link(neighbours, view.getKey(), neighbour);
+                    link(neighbours, neighbour, view.getKey());
+                }
+            }
+        }
+        List<Integer> nodes = new ArrayList<>(neighbours.keySet());
+        Random rand = new Random(time);
+        int measured = 0;
+        double sum = 0;
+        for (int n = 0; n < Math.min(CLUSTERING_NODES, nodes.size()); n++) {
+            //partial Fisher-Yates, the front of the list is the subset
+            int pick = n + rand.nextInt(nodes.size() - n);
+            Integer node = nodes.get(pick);
+            nodes.set(pick, nodes.get(n));
+            nodes.set(n, node);
+
+            List<Integer> adjacent = new ArrayList<>(neighbours.get(node));
+            int degree = adjacent.size();
+            if (degree < 2) {
+                continue;
+            }
+            int closed = 0;
+            for (int a = 0; a < degree; a++) {
+                Set<Integer> of = neighbours.get(adjacent.get(a));
+                for (int b = a + 1; b < degree; b++) {
+                    if (of.contains(adjacent.get(b))) {
+                        closed++;
+                    }
+                }
+            }
+            sum += 2.0 * closed / (degree * (degree - 1));
+            measured++;
+        }
+        return measured == 0 ? 0 : sum / measured;
+    }
+
+    private boolean anyLive(Set<Integer> view) {
+        for (Integer neighbour : view) {
+            if (live.contains(neighbour)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void link(Map<Integer, Set<Integer>> neighbours, Integer from, Integer to) {
+        Set<Integer> of = neighbours.get(from);
+        if (of == null) {
+            of = new HashSet<>();
+            neighbours.put(from, of);
+        }
+        of.add(to);
+    }
+
+    private double uniformity() {
+        if (live.size() < 2) {
+            return 0;
+        }
+        long total = 0;
+        for (Integer count : sampled.values()) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        double expected = (double) total / live.size();
+        double chiSquare = 0;
+        for (Integer node : live) {
+            Integer count = sampled.get(node);
+            double observed = count == null ? 0 : count;
+            chiSquare += (observed - expected) * (observed - expected) / expected;
+        }
+        return chiSquare / (live.size() - 1);
+    }
+
+    /**
+     * locality of uniformly random views
+     */
+    public double randomLocality() {
+        return Math.min(1, 2.0 * LOCALITY / (nrNodes - 1));
+    }
+
+    /**
+     * @return time from the first measurement with every node reporting to the first one at which the overlay
+     * was mixed by the locality proxy, -1 if it never was
+     */
+    public long mixingTime() {
+        long booted = -1;
+        for (Measurement m : measurements) {
+            if (m.reporting < nrNodes) {
+                continue;
+            }
+            if (booted < 0) {
+                booted = m.time;
+            }
+            if (m.locality <= MIXED_FACTOR * randomLocality()) {
+                return m.time - booted;
+            }
+        }
+        return -1;
+    }
+
+    public List<Measurement> getMeasurements() {
+        return measurements;
+    }
+
+    public Measurement last() {
+        return measurements.isEmpty() ? null : measurements.get(measurements.size() - 1);
+    }
+
+    public static class Measurement {
+
+        public final long time;
+        public final int live;
+        public final int reporting;
+        /**
+         * live nodes whose view is empty or that stopped publishing samples
+         */
+        public int emptyViews;
+        public double inDegreeMean;
+        public double inDegreeVariance;
+        public int inDegreeMin;
+        public int inDegreeP5;
+        public int inDegreeP50;
+        public int inDegreeP95;
+        public int inDegreeMax;
+        public double locality;
+        public double clustering;
+        public double uniformity;
+        public double deadFraction;
+        public double shuffleBytesPerNodeSecond;
+
+        public Measurement(long time, int live, int reporting) {
+            this.time = time;
+            this.live = live;
+            this.reporting = reporting;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("t:%d live:%d reporting:%d empty views:%d in-degree mean:%.2f variance:%.2f"
+                    + " min/p5/p50/p95/max:%d/%d/%d/%d/%d locality:%.4f clustering:%.4f chi-square/dof:%.3f"
+                    + " dead:%.4f shuffle bytes/node/s:%.1f", time, live, reporting, emptyViews, inDegreeMean,
+                    inDegreeVariance, inDegreeMin, inDegreeP5, inDegreeP50, inDegreeP95, inDegreeMax, locality,
+                    clustering, uniformity, deadFraction, shuffleBytesPerNodeSecond);
+        }
+    }
+}
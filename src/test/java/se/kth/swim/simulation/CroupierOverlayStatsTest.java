@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.simulation;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CroupierOverlayStatsTest {
+
+    private static final int LIVE = 200;
+    private static final int DEAD = 50;
+    private static final int VIEW_SIZE = 10;
+    private static final double DEAD_SHARE = 0.1;
+    private static final long PERIOD = 1000;
+    private static final long ROUND = 100;
+
+    /**
+     * Every node reports views drawn uniformly from the live nodes, with a fixed share of dead descriptors mixed in.
+     */
+    @Test
+    public void uniformRandomViews() {
+        CroupierOverlayStats stats = new CroupierOverlayStats(LIVE, PERIOD);
+        for (int node = 1; node <= LIVE; node++) {
+            stats.joined(node);
+        }
+        Random rand = new Random(123);
+        for (long time = 0; time <= 20 * PERIOD; time += ROUND) {
+            for (int node = 1; node <= LIVE; node++) {
+                stats.record(time, node, randomView(rand, node));
+            }
+        }
+
+        List<CroupierOverlayStats.Measurement> measurements = stats.getMeasurements();
+        Assert.assertEquals(20, measurements.size());
+        double uniformity = 0;
+        double deadFraction = 0;
+        for (CroupierOverlayStats.Measurement m : measurements) {
+            Assert.assertEquals(LIVE, m.live);
+            Assert.assertEquals(LIVE, m.reporting);
+            Assert.assertEquals(0, m.emptyViews);
+            uniformity += m.uniformity;
+            deadFraction += m.deadFraction;
+        }
+        uniformity /= measurements.size();
+        deadFraction /= measurements.size();
+        Assert.assertEquals(1, uniformity, 0.15);
+        Assert.assertEquals(DEAD_SHARE, deadFraction, 0.01);
+    }
+
+    @Test
+    public void silentNodesCountAsEmptyViews() {
+        CroupierOverlayStats stats = new CroupierOverlayStats(LIVE, PERIOD);
+        for (int node = 1; node <= LIVE; node++) {
+            stats.joined(node);
+        }
+        Random rand = new Random(123);
+        for (long time = 0; time <= 10 * PERIOD; time += ROUND) {
+            for (int node = 1; node <= LIVE; node++) {
+                //node 1 goes quiet after the first period
+                if (node != 1 || time < PERIOD) {
+                    stats.record(time, node, randomView(rand, node));
+                }
+            }
+        }
+        Assert.assertEquals(1, stats.last().emptyViews);
+    }
+
+    private static Set<Integer> randomView(Random rand, int self) {
+        Set<Integer> view = new HashSet<>();
+        while (view.size() < VIEW_SIZE) {
+            if (rand.nextDouble() < DEAD_SHARE) {
+                view.add(LIVE + 1 + rand.nextInt(DEAD));
+            } else {
+                int neighbour = 1 + rand.nextInt(LIVE);
+                if (neighbour != self) {
+                    view.add(neighbour);
+                }
+            }
+        }
+        return view;
+    }
+}
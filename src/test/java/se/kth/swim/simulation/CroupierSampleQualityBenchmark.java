@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.simulation;
+
+import java.util.List;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.swim.croupier.CroupierConfig;
+import se.kth.swim.croupier.CroupierSelectionPolicy;
+import se.sics.kompics.simulator.SimulationScenario;
+import se.sics.kompics.simulator.run.LauncherComp;
+
+/**
+ * Sample quality and overlay health of croupier from 1k to 20k nodes, with and
+ * without nated nodes and churn. Every run reports the in-degree distribution,
+ * the clustering coefficient, the uniformity of samples against the live set,
+ * the fraction of dead descriptors in samples and the shuffle traffic, as the
+ * mean over the second half of the run.
+ *
+ * The runs take long, so they only run with -Dcroupier.benchmark=true. A single
+ * custom run is configured with -Dcroupier.benchmark.nodes,
+ * -Dcroupier.benchmark.natRatio and -Dcroupier.benchmark.churn (nodes replaced
+ * per second).
+ *
+ * @author Alex Ormenisan <aaor@sics.se>
+ */
+public class CroupierSampleQualityBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(CroupierSampleQualityBenchmark.class);
+    private static final long SEED = 123;
+    private static final long SHUFFLE_PERIOD = 1000;
+    private static final long DURATION = 300 * SHUFFLE_PERIOD;
+
+    @Test
+    public void open1k() {
+        Assume.assumeTrue(Boolean.getBoolean("croupier.benchmark"));
+        run(1000, 0, 0);
+    }
+
+    @Test
+    public void nated1kChurn() {
+        Assume.assumeTrue(Boolean.getBoolean("croupier.benchmark"));
+        run(1000, 0.7, 2);
+    }
+
+    @Test
+    public void nated5kChurn() {
+        Assume.assumeTrue(Boolean.getBoolean("croupier.benchmark"));
+        run(5000, 0.7, 10);
+    }
+
+    @Test
+    public void nated20kChurn() {
+        Assume.assumeTrue(Boolean.getBoolean("croupier.benchmark"));
+        run(20000, 0.7, 40);
+    }
+
+    @Test
+    public void custom() {
+        Assume.assumeTrue(Boolean.getBoolean("croupier.benchmark"));
+        Assume.assumeTrue(System.getProperty("croupier.benchmark.nodes") != null);
+        run(Integer.getInteger("croupier.benchmark.nodes"),
+                Double.parseDouble(System.getProperty("croupier.benchmark.natRatio", "0")),
+                Double.parseDouble(System.getProperty("croupier.benchmark.churn", "0")));
+    }
+
+    private void run(int nrNodes, double natRatio, double churnPerSecond) {
+        CroupierConfig croupierConfig = new CroupierConfig.Builder(10, 5, SHUFFLE_PERIOD, SHUFFLE_PERIOD / 2)
+                .policy(CroupierSelectionPolicy.HEALER)
+                .maxDescriptorAge(30)
+                .build();
+        CroupierOverlayStats stats = new CroupierOverlayStats(nrNodes, SHUFFLE_PERIOD);
+        SimulationScenario.setSeed(SEED);
+        CroupierSampleQualityScenario.sampleQuality(SEED, nrNodes, natRatio, churnPerSecond, croupierConfig, stats,
+                DURATION).simulate(LauncherComp.class);
+
+        List<CroupierOverlayStats.Measurement> measurements = stats.getMeasurements();
+        List<CroupierOverlayStats.Measurement> settled = measurements.subList(measurements.size() / 2,
+                measurements.size());
+        double variance = 0;
+        double clustering = 0;
+        double uniformity = 0;
+        double dead = 0;
+        double bytes = 0;
+        for (CroupierOverlayStats.Measurement m : settled) {
+            variance += m.inDegreeVariance;
+            clustering += m.clustering;
+            uniformity += m.uniformity;
+            dead += m.deadFraction;
+            bytes += m.shuffleBytesPerNodeSecond;
+        }
+        int n = Math.max(1, settled.size());
+        log.info("nodes:{} nat ratio:{} churn/s:{} | in-degree variance:{} clustering:{} chi-square/dof:{}"
+                + " dead descriptors:{} shuffle bytes/node/s:{}", new Object[]{nrNodes, natRatio, churnPerSecond,
+                    variance / n, clustering / n, uniformity / n, dead / n, bytes / n});
+        log.info("nodes:{} nat ratio:{} churn/s:{} | final {}", new Object[]{nrNodes, natRatio, churnPerSecond,
+            stats.last()});
+        for (CroupierOverlayStats.Measurement m : measurements) {
+            log.debug("{}", m);
+        }
+    }
+}
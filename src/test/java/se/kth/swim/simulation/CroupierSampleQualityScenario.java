@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.simulation;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import se.kth.swim.croupier.CroupierConfig;
+import se.kth.swim.nat.NatType;
+import se.kth.swim.nat.NatedAddress;
+import se.kth.swim.network.impl.BasicAddress;
+import se.kth.swim.network.impl.BasicNatedAddress;
+import se.kth.swim.util.Clock;
+import se.sics.kompics.ComponentDefinition;
+import se.sics.kompics.Init;
+import se.sics.kompics.network.Address;
+import se.sics.kompics.simulator.SimulationScenario;
+import se.sics.kompics.simulator.adaptor.Operation;
+import se.sics.kompics.simulator.adaptor.Operation1;
+import se.sics.kompics.simulator.adaptor.distributions.extra.BasicIntSequentialDistribution;
+import se.sics.kompics.simulator.events.system.KillNodeEvent;
+import se.sics.kompics.simulator.events.system.StartNodeEvent;
+
+/**
+ * Croupier overlay of a given size and share of nated nodes, optionally under
+ * churn: every churn event kills a random live node and starts a fresh one that
+ * bootstraps from random live nodes.
+ *
+ * The first nodes are open relays that are never churned, every nated node has
+ * two of them as parents. Which of the other nodes are nated follows from a
+ * hash of their id.
+ *
+ * @author Alex Ormenisan <aaor@sics.se>
+ */
+public class CroupierSampleQualityScenario {
+
+    private static final int BOOTSTRAP_NODES = 4;
+    private static final int PARENTS = 2;
+    private static InetAddress localHost;
+
+    static {
+        try {
+            localHost = InetAddress.getByName("127.0.0.1");
+        } catch (UnknownHostException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private final long seed;
+    private final int relays;
+    private final double natRatio;
+    private final CroupierConfig croupierConfig;
+    private final CroupierOverlayStats stats;
+    private final Random rand;
+
+    private CroupierSampleQualityScenario(long seed, int nrNodes, double natRatio, CroupierConfig croupierConfig,
+            CroupierOverlayStats stats) {
+        this.seed = seed;
+        this.relays = Math.max(PARENTS + 1, nrNodes / 100);
+        this.natRatio = natRatio;
+        this.croupierConfig = croupierConfig;
+        this.stats = stats;
+        this.rand = new Random(seed);
+    }
+
+    /**
+     * @param natRatio fraction of nated nodes
+     * @param churnPerSecond nodes replaced per second of simulated time, 0 for none
+     * @param duration simulated time the overlay runs after the last node started, in ms. With churn the
+     * overlay first settles for a warmup of 20 shuffle periods and is then churned for the whole duration
+     */
+    public static SimulationScenario sampleQuality(final long seed, final int nrNodes, final double natRatio,
+            final double churnPerSecond, final CroupierConfig croupierConfig, final CroupierOverlayStats stats,
+            final long duration) {
+        final CroupierSampleQualityScenario setup = new CroupierSampleQualityScenario(seed, nrNodes, natRatio,
+                croupierConfig, stats);
+        SimulationScenario scen = new SimulationScenario() {
+            {
+                StochasticProcess setupSystem = new StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(10));
+                        raise(1, SwimScenario.setupSystemOp);
+                    }
+                };
+
+                StochasticProcess startPeers = new StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1));
+                        raise(nrNodes, setup.startNodeOp(false), new BasicIntSequentialDistribution(1));
+                    }
+                };
+
+                setupSystem.start();
+                startPeers.startAfterTerminationOf(10, setupSystem);
+
+                //let the overlay settle before churning it
+                long warmup = churnPerSecond > 0 ? 20 * croupierConfig.shufflePeriod : 0;
+                if (churnPerSecond > 0) {
+                    final int churnEvents = (int) (churnPerSecond * duration / 1000);
+                    final long interArrival = Math.max(1, Math.round(1000 / churnPerSecond));
+                    StochasticProcess killPeers = new StochasticProcess() {
+                        {
+                            eventInterArrivalTime(constant(interArrival));
+                            raise(churnEvents, setup.killNodeOp());
+                        }
+                    };
+                    StochasticProcess joinPeers = new StochasticProcess() {
+                        {
+                            eventInterArrivalTime(constant(interArrival));
+                            raise(churnEvents, setup.startNodeOp(true), new BasicIntSequentialDistribution(nrNodes + 1));
+                        }
+                    };
+                    killPeers.startAfterTerminationOf(warmup, startPeers);
+                    joinPeers.startAfterTerminationOf(warmup, startPeers);
+                }
+                //the last churn events are raised a full duration after the warmup
+                terminateAfterTerminationOf(warmup + duration, startPeers);
+            }
+        };
+
+        scen.setSeed(seed);
+
+        return scen;
+    }
+
+    Operation1<StartNodeEvent, Integer> startNodeOp(final boolean joiner) {
+        return new Operation1<StartNodeEvent, Integer>() {
+
+            @Override
+            public StartNodeEvent generate(final Integer nodeId) {
+                return new StartNodeEvent() {
+                    private final NatedAddress nodeAddress = getAddress(nodeId);
+
+                    @Override
+                    public Address getNodeAddress() {
+                        return nodeAddress;
+                    }
+
+                    @Override
+                    public Class<? extends ComponentDefinition> getComponentDefinition() {
+                        return CroupierBenchHost.class;
+                    }
+
+                    @Override
+                    public Init getComponentInit() {
+                        List<NatedAddress> bootstrap = joiner ? randomLiveNodes(nodeId) : predecessors(nodeId);
+                        return new CroupierBenchHost.CroupierBenchHostInit(nodeAddress, bootstrap, seed + nodeId,
+                                croupierConfig, stats, Clock.SYSTEM);
+                    }
+                };
+            }
+        };
+    }
+
+    Operation<KillNodeEvent> killNodeOp() {
+        return new Operation<KillNodeEvent>() {
+
+            @Override
+            public KillNodeEvent generate() {
+                return new KillNodeEvent() {
+                    private NatedAddress nodeAddress = null;
+
+                    @Override
+                    public Address getNodeAddress() {
+                        if (nodeAddress == null) {
+                            List<Integer> churnable = stats.liveNodes();
+                            churnable.removeAll(relayIds());
+                            Collections.sort(churnable);
+                            int victim = churnable.get(rand.nextInt(churnable.size()));
+                            stats.left(victim);
+                            nodeAddress = getAddress(victim);
+                        }
+                        return nodeAddress;
+                    }
+                };
+            }
+        };
+    }
+
+    private List<Integer> relayIds() {
+        List<Integer> ids = new LinkedList<>();
+        for (int nodeId = 1; nodeId <= relays; nodeId++) {
+            ids.add(nodeId);
+        }
+        return ids;
+    }
+
+    private List<NatedAddress> predecessors(int selfId) {
+        List<NatedAddress> bootstrap = new LinkedList<>();
+        for (int nodeId = selfId - BOOTSTRAP_NODES; nodeId < selfId; nodeId++) {
+            if (nodeId >= 1) {
+                bootstrap.add(getAddress(nodeId));
+            }
+        }
+        return bootstrap;
+    }
+
+    private List<NatedAddress> randomLiveNodes(int selfId) {
+        List<Integer> live = stats.liveNodes();
+        live.remove(Integer.valueOf(selfId));
+        Collections.sort(live);
+        List<NatedAddress> bootstrap = new LinkedList<>();
+        for (int i = 0; i < BOOTSTRAP_NODES && !live.isEmpty(); i++) {
+            bootstrap.add(getAddress(live.remove(rand.nextInt(live.size()))));
+        }
+        return bootstrap;
+    }
+
+    boolean isNated(int nodeId) {
+        if (nodeId <= relays) {
+            return false;
+        }
+        //multiplicative hash spreads the nated ids evenly
+        double position = ((nodeId * 0x9E3779B1L) & 0xFFFF) / 65536.0;
+        return position < natRatio;
+    }
+
+    NatedAddress getAddress(int nodeId) {
+        BasicAddress baseAdr = new BasicAddress(localHost, 12345, nodeId);
+        if (!isNated(nodeId)) {
+            return new BasicNatedAddress(baseAdr);
+        }
+        List<NatedAddress> parents = new LinkedList<>();
+        for (int i = 0; i < PARENTS; i++) {
+            parents.add(new BasicNatedAddress(new BasicAddress(localHost, 12345, 1 + (nodeId + i) % relays)));
+        }
+        return new BasicNatedAddress(baseAdr, NatType.NAT, parents);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package se.kth.swim.simulation;
+
+import se.kth.swim.croupier.internal.CroupierShuffle;
+import se.kth.swim.croupier.internal.CroupierShuffleCodec;
+import se.kth.swim.network.impl.BasicContentMsg;
+import se.sics.kompics.ComponentDefinition;
+import se.sics.kompics.Handler;
+import se.sics.kompics.Init;
+import se.sics.kompics.Negative;
+import se.sics.kompics.Positive;
+import se.sics.kompics.network.Network;
+
+/**
+ * Network pass-through in front of a croupier, adding the encoded size of every
+ * shuffle it sends to the overlay statistics.
+ *
+ * @author Alex Ormenisan <aaor@sics.se>
+ */
+public class ShuffleTrafficMeter extends ComponentDefinition {
+
+    private Negative<Network> local = provides(Network.class);
+    private Positive<Network> network = requires(Network.class);
+
+    private final CroupierOverlayStats stats;
+    private final CroupierShuffleCodec codec = new CroupierShuffleCodec();
+
+    public ShuffleTrafficMeter(ShuffleTrafficMeterInit init) {
+        this.stats = init.stats;
+        subscribe(handleOutgoing, local);
+        subscribe(handleIncoming, network);
+    }
+
+    private Handler<BasicContentMsg<Object>> handleOutgoing = new Handler<BasicContentMsg<Object>>() {
+
+        @Override
+        public void handle(BasicContentMsg<Object> msg) {
+            if (msg.getContent() instanceof CroupierShuffle.Basic) {
+                stats.sent(codec.encodedSize((CroupierShuffle.Basic) msg.getContent()));
+            }
+            trigger(msg, network);
+        }
+    };
+
+    private Handler<BasicContentMsg<Object>> handleIncoming = new Handler<BasicContentMsg<Object>>() {
+
+        @Override
+        public void handle(BasicContentMsg<Object> msg) {
+            trigger(msg, local);
+        }
+    };
+
+    public static class ShuffleTrafficMeterInit extends Init<ShuffleTrafficMeter> {
+
+        public final CroupierOverlayStats stats;
+
+        public ShuffleTrafficMeterInit(CroupierOverlayStats stats) {
+            this.stats = stats;
+        }
+    }
+}
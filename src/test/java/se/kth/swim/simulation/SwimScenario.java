@@ -28,6 +28,7 @@ import org.javatuples.Pair;
 import org.junit.Assert;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.kth.swim.BootstrapComp;
 import se.kth.swim.HostComp;
 import se.kth.swim.croupier.CroupierConfig;
 import se.kth.swim.nat.NatType;
@@ -65,6 +66,9 @@ public class SwimScenario {
 
     private static CroupierConfig croupierConfig = new CroupierConfig(10, 5, 2000, 1000);
 
+    //the bootstrap server sits outside the peer id range so it is never picked as a peer
+    private static final int BOOTSTRAP_SERVER_ID = 0;
+
     static {
         try {
             localHost = InetAddress.getByName("127.0.0.1");
@@ -86,6 +90,32 @@ public class SwimScenario {
         }
     };
 
+    static Operation<StartNodeEvent> startBootstrapServerOp = new Operation<StartNodeEvent>() {
+
+        @Override
+        public StartNodeEvent generate() {
+            return new StartNodeEvent() {
+                private final NatedAddress serverAddress = bootstrapServer();
+
+                @Override
+                public Address getNodeAddress() {
+                    return serverAddress;
+                }
+
+                @Override
+                public Class<? extends ComponentDefinition> getComponentDefinition() {
+                    return BootstrapComp.class;
+                }
+
+                @Override
+                public Init getComponentInit() {
+                    log.info("StartNodeEvent of bootstrap server {}", serverAddress.getId());
+                    return new BootstrapComp.BootStrapInit(serverAddress, seed);
+                }
+            };
+        }
+    };
+
     static Operation3<StartNodeEvent, Integer, Integer, Integer> startNodeOp
             = new Operation3<StartNodeEvent, Integer, Integer, Integer>() {
 
@@ -112,7 +142,8 @@ public class SwimScenario {
 
                     log.info("StartNodeEvent of peer {} at getComponentInit method bootstrapNodes{} nodeseed:{} croupierConfig{}",
                             new Object[]{nodeAddress.getId(),bootstrapNodes(nodeId, firstId, lastId),nodeSeed,croupierConfig});
-                    return new HostComp.HostInit(nodeAddress, bootstrapNodes(nodeId, firstId, lastId), nodeSeed, croupierConfig);
+                    return new HostComp.HostInit(nodeAddress, bootstrapNodes(nodeId, firstId, lastId), nodeSeed, croupierConfig,
+                            bootstrapServer());
                 }
             };
         }
@@ -207,6 +238,13 @@ public class SwimScenario {
                     }
                 };
 
+                StochasticProcess startBootstrapServer = new StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(10));
+                        raise(1, startBootstrapServerOp);
+                    }
+                };
+
                 StochasticProcess startPeers = new StochasticProcess() {
                     {
                         eventInterArrivalTime(constant(10));
@@ -253,7 +291,8 @@ public class SwimScenario {
                 };
 
                 setupSystem.start();
-                startPeers.startAfterTerminationOf(10, setupSystem);
+                startBootstrapServer.startAfterTerminationOf(10, setupSystem);
+                startPeers.startAfterTerminationOf(10, startBootstrapServer);
                 killPeers.startAfterTerminationOf(10000, startPeers);
                 //deadLinks1.startAfterTerminationOf(5000,killPeers);
                 //startDeadPeers.startAfterTerminationOf(10000, killPeers);
@@ -277,6 +316,11 @@ public class SwimScenario {
         return scen;
     }
 
+    static NatedAddress bootstrapServer() {
+        //even id, so an open address without parents
+        return new BasicNatedAddress(new BasicAddress(localHost, 12345, BOOTSTRAP_SERVER_ID));
+    }
+
     static List<NatedAddress> bootstrapNodes(int selfId, int firstId, int lastId) {
         List<NatedAddress> bootstrap = new LinkedList<>();
 